@@ -0,0 +1,86 @@
+package io.curso.libraryapi.benchmark;
+
+import io.curso.libraryapi.LibraryApiApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+final class BenchmarkContext {
+
+    private static final int SEED_BATCH = 10_000;
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(String... properties) {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        // OPTIMIZE_REUSE_RESULTS=FALSE: sem isso o H2 devolve o resultado anterior quando a mesma consulta
+        // se repete com os mesmos parametros, e o benchmark mede so o Hibernate
+        List<String> defaults = new ArrayList<>(Arrays.asList(
+                "spring.datasource.url=jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;OPTIMIZE_REUSE_RESULTS=FALSE",
+                "spring.main.banner-mode=off",
+                "server.port=0",
+                "logging.level.root=WARN",
+                "logging.file="
+        ));
+        defaults.addAll(Arrays.asList(properties));
+        return new SpringApplicationBuilder(LibraryApiApplication.class)
+                .properties(defaults.toArray(new String[0]))
+                .run();
+    }
+
+    static int booksFor(int loans) {
+        return Math.max(1, loans / 10);
+    }
+
+    // 1 livro para cada 10 emprestimos, datas espalhadas em um ano e 5% dos emprestimos em aberto
+    static void seed(JdbcTemplate jdbc, int loans) {
+        int books = booksFor(loans);
+        List<Object[]> rows = new ArrayList<>(SEED_BATCH);
+        for (int id = 1; id <= books; id++) {
+            rows.add(new Object[]{(long) id, "Title " + id, "Autor " + (id % 1000), isbn(id)});
+            if (rows.size() == SEED_BATCH || id == books) {
+                jdbc.batchUpdate("insert into book (id, title, autor, isbn) values (?, ?, ?, ?)", rows);
+                rows.clear();
+            }
+        }
+        // ids explicitos na massa: as sequences com pool (incremento 50) precisam comecar depois deles
+        jdbc.execute("alter sequence book_seq restart with " + (books + 50));
+        LocalDate today = LocalDate.now();
+        for (int id = 1; id <= loans; id++) {
+            rows.add(new Object[]{(long) id, customer(id), customer(id) + "@email.com", (long) (id % books) + 1,
+                    Date.valueOf(today.minusDays(id % 365)), id % 20 != 0});
+            if (rows.size() == SEED_BATCH || id == loans) {
+                jdbc.batchUpdate("insert into loan (id, customer, customer_email, id_book, loan_date, returned) values (?, ?, ?, ?, ?, ?)", rows);
+                rows.clear();
+            }
+        }
+        jdbc.execute("alter sequence loan_seq restart with " + (loans + 50));
+    }
+
+    // os indices em memoria sao carregados no refresh do contexto, antes da massa de dados existir
+    static void warmUp(ConfigurableApplicationContext context) {
+        context.publishEvent(new ContextRefreshedEvent(context));
+    }
+
+    static String isbn(long bookId) {
+        return String.format("978%010d", bookId);
+    }
+
+    static String customer(long loanId) {
+        return "customer-" + (loanId % 50_000);
+    }
+
+    static void printPlan(JdbcTemplate jdbc, String sql) {
+        System.out.println("EXPLAIN " + sql);
+        jdbc.queryForList("explain " + sql, String.class).forEach(plan -> System.out.println("    " + plan.replace('\n', ' ')));
+    }
+}
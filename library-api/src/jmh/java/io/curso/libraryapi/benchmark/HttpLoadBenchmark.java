@@ -0,0 +1,102 @@
+package io.curso.libraryapi.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carga HTTP contra a API rodando no Tomcat embarcado, nos modos bloqueante, assincrono e com virtual threads.
+ * O modo SampleTime reporta os percentis (p0.99) da latencia por requisicao com {@code @Threads} clientes simultaneos.
+ * {@code -p virtualThreads=true} exige rodar os forks em um JDK 21+ ({@code -jvm <jdk21>/bin/java}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Threads(256)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+public class HttpLoadBenchmark {
+
+    @Param({"false", "true"})
+    boolean async;
+
+    @Param({"false"})
+    boolean virtualThreads;
+
+    @Param({"50"})
+    int tomcatThreads;
+
+    @Param({"100000"})
+    int loans;
+
+    private ConfigurableApplicationContext context;
+    private String baseUrl;
+    private int books;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start(
+                "application.api.async.enabled=" + async,
+                "application.threads.virtual.enabled=" + virtualThreads,
+                "server.tomcat.max-threads=" + tomcatThreads);
+        BenchmarkContext.seed(context.getBean(JdbcTemplate.class), loans);
+        BenchmarkContext.warmUp(context);
+        books = BenchmarkContext.booksFor(loans);
+        baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int findLoansByIsbn() throws IOException {
+        long bookId = ThreadLocalRandom.current().nextInt(books) + 1;
+        return get("/api/loans?isbn=" + BenchmarkContext.isbn(bookId) + "&customer=none&page=0&size=20");
+    }
+
+    @Benchmark
+    public int getBook() throws IOException {
+        long bookId = ThreadLocalRandom.current().nextInt(books) + 1;
+        return get("/api/books/" + bookId);
+    }
+
+    private int get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestProperty("Accept", "application/json");
+        int status = connection.getResponseCode();
+        // le o corpo inteiro para a conexao voltar ao keep-alive
+        try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[8192];
+            while (body != null && body.read(buffer) != -1) {
+                // descarta
+            }
+        }
+        if (status != 200) {
+            throw new IllegalStateException("HTTP " + status + " for " + path);
+        }
+        return status;
+    }
+}
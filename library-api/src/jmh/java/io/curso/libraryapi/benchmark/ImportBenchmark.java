@@ -0,0 +1,85 @@
+package io.curso.libraryapi.benchmark;
+
+import io.curso.libraryapi.api.importer.CsvBookRows;
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.service.BookImportResult;
+import io.curso.libraryapi.service.BookImportService;
+import io.curso.libraryapi.service.BookService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Carga de um catalogo: o import em lote contra um POST /api/books por livro.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ImportBenchmark {
+
+    @Param({"10000"})
+    int books;
+
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+    private BookImportService importService;
+    private int round;
+    private byte[] csv;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        bookService = context.getBean(BookService.class);
+        importService = context.getBean(BookImportService.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void nextRound() {
+        round++;
+        StringBuilder content = new StringBuilder("title,autor,isbn\n");
+        for (int i = 0; i < books; i++) {
+            content.append("Title ").append(i).append(",Autor ").append(i % 1000).append(',').append(isbn(i)).append('\n');
+        }
+        csv = content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public BookImportResult importCsv() {
+        return importService.importBooks(new CsvBookRows(new ByteArrayInputStream(csv)));
+    }
+
+    @Benchmark
+    public int saveOneByOne() {
+        for (int i = 0; i < books; i++) {
+            bookService.save(Book.builder().title("Title " + i).autor("Autor " + (i % 1000)).isbn(isbn(i)).build());
+        }
+        return books;
+    }
+
+    private String isbn(int i) {
+        return "r" + round + "-" + i;
+    }
+}
@@ -0,0 +1,117 @@
+package io.curso.libraryapi.benchmark;
+
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.BookRepository;
+import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.api.repository.LoanRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara as consultas de Book e Loan com os indices declarados nas entidades ("indexed=true")
+ * e sem eles ("indexed=false", o schema anterior), imprimindo o plano de cada consulta no setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IndexQueryBenchmark {
+
+    @Param({"1000000"})
+    int loans;
+
+    @Param({"false", "true"})
+    boolean indexed;
+
+    private ConfigurableApplicationContext context;
+    private BookRepository bookRepository;
+    private LoanRepository loanRepository;
+    private int books;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        bookRepository = context.getBean(BookRepository.class);
+        loanRepository = context.getBean(LoanRepository.class);
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+
+        BenchmarkContext.seed(jdbc, loans);
+        books = BenchmarkContext.booksFor(loans);
+        if (!indexed) {
+            jdbc.execute("drop index idx_loan_book_returned");
+            jdbc.execute("drop index idx_loan_date_returned");
+            jdbc.execute("drop index idx_loan_customer_returned");
+            jdbc.execute("alter table book drop constraint uk_book_isbn");
+        }
+        jdbc.execute("analyze");
+
+        System.out.println();
+        System.out.println("indexed=" + indexed + " loans=" + loans);
+        BenchmarkContext.printPlan(jdbc, "select count(id) from loan where id_book = 42 and (returned is null or returned = false)");
+        BenchmarkContext.printPlan(jdbc, "select * from loan where loan_date <= '" + LocalDate.now().minusDays(4)
+                + "' and (returned is null or returned = false) order by loan_date, id limit 500");
+        BenchmarkContext.printPlan(jdbc, "select l.id from loan l inner join book b on b.id = l.id_book where b.isbn = '"
+                + BenchmarkContext.isbn(42) + "' union select l.id from loan l where l.customer = 'customer-42'");
+        BenchmarkContext.printPlan(jdbc, "select * from book where isbn = '" + BenchmarkContext.isbn(42) + "'");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public boolean existsByBookAndNotReturned() {
+        return loanRepository.existsByBookAndNotReturned(Book.builder().id(randomBookId()).build());
+    }
+
+    @Benchmark
+    public List<Loan> firstLateLoansChunk() {
+        return loanRepository.findFirstLateLoans(LocalDate.now().minusDays(4), PageRequest.of(0, 500));
+    }
+
+    @Benchmark
+    public List<Loan> findByBookIsbnOrCustomer() {
+        long bookId = randomBookId();
+        List<Long> ids = loanRepository.findIdsByBookIsbnOrCustomer(BenchmarkContext.isbn(bookId), BenchmarkContext.customer(bookId),
+                PageRequest.of(0, 20));
+        return ids.isEmpty() ? Collections.emptyList() : loanRepository.findWithBookByIds(ids);
+    }
+
+    @Benchmark
+    public Optional<Book> findByIsbn() {
+        return bookRepository.findByIsbn(BenchmarkContext.isbn(randomBookId()));
+    }
+
+    @Benchmark
+    public boolean existsByIsbn() {
+        return bookRepository.existsByIsbn(BenchmarkContext.isbn(randomBookId()));
+    }
+
+    private long randomBookId() {
+        return ThreadLocalRandom.current().nextInt(books) + 1;
+    }
+}
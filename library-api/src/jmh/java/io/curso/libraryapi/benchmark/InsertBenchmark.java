@@ -0,0 +1,85 @@
+package io.curso.libraryapi.benchmark;
+
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.BookRepository;
+import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.api.repository.LoanRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rajada de inserts em uma transacao, como num pico de emprestimos ou numa carga em lote.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InsertBenchmark {
+
+    @Param({"1000"})
+    int burst;
+
+    private static final int SEEDED_LOANS = 100_000;
+
+    private ConfigurableApplicationContext context;
+    private BookRepository bookRepository;
+    private LoanRepository loanRepository;
+    private int books;
+    private final AtomicLong isbns = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        bookRepository = context.getBean(BookRepository.class);
+        loanRepository = context.getBean(LoanRepository.class);
+        BenchmarkContext.seed(context.getBean(JdbcTemplate.class), SEEDED_LOANS);
+        books = BenchmarkContext.booksFor(SEEDED_LOANS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Loan> insertLoans() {
+        List<Loan> loans = new ArrayList<>(burst);
+        LocalDate today = LocalDate.now();
+        // devolvidos: a uk_loan_open_book recusaria um segundo emprestimo aberto do mesmo livro entre iteracoes
+        for (int i = 0; i < burst; i++) {
+            Book book = Book.builder().id((long) (i % books) + 1).build();
+            loans.add(Loan.builder().book(book).customer("burst").customerEmail("burst@email.com").loanDate(today).returned(true).build());
+        }
+        return loanRepository.saveAll(loans);
+    }
+
+    @Benchmark
+    public List<Book> insertBooks() {
+        List<Book> batch = new ArrayList<>(burst);
+        for (int i = 0; i < burst; i++) {
+            batch.add(Book.builder().title("Burst").autor("Autor").isbn("burst-" + isbns.incrementAndGet()).build());
+        }
+        return bookRepository.saveAll(batch);
+    }
+}
@@ -0,0 +1,75 @@
+package io.curso.libraryapi.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.curso.libraryapi.api.dto.LoanDto;
+import io.curso.libraryapi.api.mapper.LoanMapper;
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.Loan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Serializacao de uma pagina de emprestimos como o GET /api/loans devolve, com o ObjectMapper
+ * configurado como o do Spring MVC.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JsonBenchmark {
+
+    @Param({"20", "100", "1000"})
+    int pageSize;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private List<Loan> loans;
+    private Page<LoanDto> page;
+
+    @Setup
+    public void setUp() {
+        loans = new ArrayList<>(pageSize);
+        for (long id = 1; id <= pageSize; id++) {
+            Book book = Book.builder().id(id).title("Title " + id).autor("Autor " + id).isbn(BenchmarkContext.isbn(id)).build();
+            loans.add(Loan.builder().id(id).book(book).customer(BenchmarkContext.customer(id))
+                    .customerEmail("customer@email.com").loanDate(LocalDate.now()).build());
+        }
+        page = toPage(loans);
+    }
+
+    @Benchmark
+    public byte[] serializeLoanPage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] mapAndSerializeLoanPage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(toPage(loans));
+    }
+
+    private Page<LoanDto> toPage(List<Loan> content) {
+        List<LoanDto> dtos = content.stream().map(LoanMapper::toDto).collect(Collectors.toList());
+        return new PageImpl<>(dtos, PageRequest.of(0, pageSize), 10_000);
+    }
+}
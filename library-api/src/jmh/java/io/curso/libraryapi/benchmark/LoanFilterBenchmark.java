@@ -0,0 +1,109 @@
+package io.curso.libraryapi.benchmark;
+
+import io.curso.libraryapi.api.dto.LoanFilterDTO;
+import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.service.LoanService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara a busca de emprestimos por filtro ("split", a consulta montada so com os filtros informados)
+ * com a consulta anterior, um OR entre isbn e customer sobre o join ("or"), para cada combinacao de filtros.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LoanFilterBenchmark {
+
+    private static final String OR_QUERY = " from Loan l join l.book b where b.isbn = :isbn or l.customer = :customer ";
+
+    @Param({"1000000"})
+    int loans;
+
+    @Param({"isbn", "customer", "both"})
+    String filter;
+
+    private ConfigurableApplicationContext context;
+    private LoanService loanService;
+    private EntityManager entityManager;
+    private int books;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        loanService = context.getBean(LoanService.class);
+        entityManager = context.getBean(EntityManager.class);
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+
+        BenchmarkContext.seed(jdbc, loans);
+        books = BenchmarkContext.booksFor(loans);
+        jdbc.execute("analyze");
+
+        System.out.println();
+        System.out.println("filter=" + filter + " loans=" + loans);
+        String isbn = BenchmarkContext.isbn(42);
+        BenchmarkContext.printPlan(jdbc, "select l.* from loan l inner join book b on l.id_book = b.id where b.isbn = '"
+                + isbn + "' or l.customer = 'customer-42' limit 20");
+        BenchmarkContext.printPlan(jdbc, "select l.id from loan l inner join book b on b.id = l.id_book where b.isbn = '" + isbn
+                + "' union select l.id from loan l where l.customer = 'customer-42'");
+        BenchmarkContext.printPlan(jdbc, "select l.* from loan l inner join book b on l.id_book = b.id where b.isbn = '" + isbn + "' limit 20");
+        BenchmarkContext.printPlan(jdbc, "select l.* from loan l where l.customer = 'customer-42' limit 20");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Page<Loan> split() {
+        return loanService.find(randomFilter(), PageRequest.of(0, 20));
+    }
+
+    @Benchmark
+    public Page<Loan> or() {
+        LoanFilterDTO dto = randomFilter();
+        List<Loan> content = entityManager.createQuery("select l" + OR_QUERY.replace("join l.book b", "join fetch l.book b"), Loan.class)
+                .setParameter("isbn", dto.getIsbn())
+                .setParameter("customer", dto.getCustomer())
+                .setMaxResults(20)
+                .getResultList();
+        Long total = entityManager.createQuery("select count(l)" + OR_QUERY, Long.class)
+                .setParameter("isbn", dto.getIsbn())
+                .setParameter("customer", dto.getCustomer())
+                .getSingleResult();
+        return new PageImpl<>(content, PageRequest.of(0, 20), total);
+    }
+
+    private LoanFilterDTO randomFilter() {
+        long id = ThreadLocalRandom.current().nextInt(books) + 1;
+        return LoanFilterDTO.builder()
+                .isbn("customer".equals(filter) ? null : BenchmarkContext.isbn(id))
+                .customer("isbn".equals(filter) ? null : BenchmarkContext.customer(id))
+                .build();
+    }
+}
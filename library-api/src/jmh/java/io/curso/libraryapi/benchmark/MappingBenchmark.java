@@ -0,0 +1,85 @@
+package io.curso.libraryapi.benchmark;
+
+import io.curso.libraryapi.api.dto.BookDTO;
+import io.curso.libraryapi.api.dto.LoanDto;
+import io.curso.libraryapi.api.mapper.BookMapper;
+import io.curso.libraryapi.api.mapper.LoanMapper;
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.Loan;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Mapeamento de uma pagina de livros e emprestimos como os controllers faziam com o ModelMapper
+ * e como fazem com os mappers escritos a mao.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MappingBenchmark {
+
+    @Param({"20", "100", "1000"})
+    int pageSize;
+
+    private final ModelMapper modelMapper = new ModelMapper();
+    private List<Book> books;
+    private List<Loan> loans;
+
+    @Setup
+    public void setUp() {
+        books = new ArrayList<>(pageSize);
+        loans = new ArrayList<>(pageSize);
+        for (long id = 1; id <= pageSize; id++) {
+            Book book = Book.builder().id(id).title("Title " + id).autor("Autor " + id).isbn(BenchmarkContext.isbn(id)).build();
+            books.add(book);
+            loans.add(Loan.builder().id(id).book(book).customer(BenchmarkContext.customer(id))
+                    .customerEmail("customer@email.com").loanDate(LocalDate.now()).build());
+        }
+        modelMapper.map(books.get(0), BookDTO.class);
+        modelMapper.map(loans.get(0), LoanDto.class);
+    }
+
+    @Benchmark
+    public List<BookDTO> booksWithModelMapper() {
+        return books.stream().map(book -> modelMapper.map(book, BookDTO.class)).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<BookDTO> booksWithBookMapper() {
+        return books.stream().map(BookMapper::toDto).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<LoanDto> loansWithModelMapper() {
+        return loans.stream().map(loan -> {
+            BookDTO bookDto = modelMapper.map(loan.getBook(), BookDTO.class);
+            LoanDto loanDto = modelMapper.map(loan, LoanDto.class);
+            loanDto.setBook(bookDto);
+            return loanDto;
+        }).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<LoanDto> loansWithLoanMapper() {
+        return loans.stream().map(LoanMapper::toDto).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,134 @@
+package io.curso.libraryapi.benchmark;
+
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.api.repository.LoanRepository;
+import io.curso.libraryapi.service.BookService;
+import io.curso.libraryapi.service.LoanService;
+import io.curso.libraryapi.service.index.OpenLoanIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ServiceBenchmark {
+
+    @Param({"100000"})
+    int loans;
+
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+    private LoanService loanService;
+    private LoanRepository loanRepository;
+    private OpenLoanIndex openLoanIndex;
+    private JdbcTemplate jdbc;
+    private List<Long> freeBookIds;
+    private final AtomicInteger nextFreeBook = new AtomicInteger();
+    private int books;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        bookService = context.getBean(BookService.class);
+        loanService = context.getBean(LoanService.class);
+        loanRepository = context.getBean(LoanRepository.class);
+        openLoanIndex = context.getBean(OpenLoanIndex.class);
+        jdbc = context.getBean(JdbcTemplate.class);
+
+        BenchmarkContext.seed(jdbc, loans);
+        BenchmarkContext.warmUp(context);
+        books = BenchmarkContext.booksFor(loans);
+        freeBookIds = jdbc.queryForList("select b.id from book b where not exists ( select 1 from loan l where l.id_book = b.id " +
+                " and ( l.returned is null or l.returned = false ) )", Long.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Page<Book> findBooksByTitle() {
+        Book filter = Book.builder().title("title " + ThreadLocalRandom.current().nextInt(books)).build();
+        return bookService.find(filter, PageRequest.of(0, 20));
+    }
+
+    @Benchmark
+    public Page<Book> findBooksByAutorAndTitle() {
+        Book filter = Book.builder().autor("autor 4").title("title 1").build();
+        return bookService.find(filter, PageRequest.of(0, 20));
+    }
+
+    // ultima pagina do catalogo: OFFSET + count contra o cursor no id
+    @Benchmark
+    public Page<Book> findBooksDeepOffsetPage() {
+        int pageSize = 20;
+        return bookService.find(new Book(), PageRequest.of(books / pageSize - 1, pageSize));
+    }
+
+    @Benchmark
+    public Slice<Book> findBooksDeepCursorPage() {
+        int pageSize = 20;
+        return bookService.findAfter(new Book(), (long) books - pageSize, pageSize);
+    }
+
+    // atrasados pelo indice ordenado por data contra a varredura da tabela de emprestimos
+    @Benchmark
+    public List<Loan> allLateLoans() {
+        return loanService.getAllLateLoans();
+    }
+
+    @Benchmark
+    public List<Loan> allLateLoansByScan() {
+        return loanRepository.findByLoanDateLessThanAndNotReturned(LocalDate.now().minusDays(4));
+    }
+
+    // so a descoberta de quais emprestimos estao atrasados, sem materializar as entidades
+    @Benchmark
+    public List<Long> lateLoanIdsFromIndex() {
+        return openLoanIndex.loansDueBy(LocalDate.now().minusDays(4));
+    }
+
+    @Benchmark
+    public List<Long> lateLoanIdsByScan() {
+        return jdbc.queryForList("select id from loan where loan_date <= ? and ( returned is null or returned = false ) order by loan_date, id",
+                Long.class, Date.valueOf(LocalDate.now().minusDays(4)));
+    }
+
+    @Benchmark
+    public Loan saveAndReturnLoan() {
+        Long bookId = freeBookIds.get(Math.floorMod(nextFreeBook.getAndIncrement(), freeBookIds.size()));
+        Book book = bookService.getBookByIsbn(BenchmarkContext.isbn(bookId)).get();
+        Loan loan = loanService.save(Loan.builder().book(book).customer("benchmark")
+                .customerEmail("benchmark@email.com").loanDate(LocalDate.now()).build());
+        loan.setReturned(true);
+        return loanService.update(loan);
+    }
+}
@@ -0,0 +1,18 @@
+package io.curso.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkReturnDTO {
+
+    private List<Long> loanIds;
+    private List<String> isbns;
+}
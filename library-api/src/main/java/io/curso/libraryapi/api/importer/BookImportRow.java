@@ -0,0 +1,29 @@
+package io.curso.libraryapi.api.importer;
+
+import io.curso.libraryapi.api.repository.Book;
+import lombok.Getter;
+
+/**
+ * Uma linha do arquivo de importacao: o livro lido ou o erro de leitura.
+ */
+@Getter
+public class BookImportRow {
+
+    private final long row;
+    private final Book book;
+    private final String error;
+
+    private BookImportRow(long row, Book book, String error) {
+        this.row = row;
+        this.book = book;
+        this.error = error;
+    }
+
+    public static BookImportRow of(long row, Book book) {
+        return new BookImportRow(row, book, null);
+    }
+
+    public static BookImportRow error(long row, String error) {
+        return new BookImportRow(row, null, error);
+    }
+}
@@ -0,0 +1,123 @@
+package io.curso.libraryapi.api.importer;
+
+import io.curso.libraryapi.api.repository.Book;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Le um CSV de livros linha a linha. O cabecalho (title, autor, isbn em qualquer ordem) e opcional;
+ * sem ele as colunas sao title,autor,isbn. Campos podem vir entre aspas, com "" para aspas literais.
+ */
+public class CsvBookRows implements Iterator<BookImportRow> {
+
+    private static final List<String> DEFAULT_COLUMNS = Arrays.asList("title", "autor", "isbn");
+
+    private final BufferedReader reader;
+    private int title = 0;
+    private int autor = 1;
+    private int isbn = 2;
+    private long line;
+    private BookImportRow next;
+    private boolean finished;
+
+    public CsvBookRows(InputStream body) {
+        this.reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            next = read();
+        }
+        return next != null;
+    }
+
+    @Override
+    public BookImportRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        BookImportRow current = next;
+        next = null;
+        return current;
+    }
+
+    private BookImportRow read() {
+        try {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (text.trim().isEmpty()) {
+                    continue;
+                }
+                List<String> fields = split(text);
+                if (line == 1 && isHeader(fields)) {
+                    continue;
+                }
+                if (fields.size() != DEFAULT_COLUMNS.size()) {
+                    return BookImportRow.error(line, "expected " + DEFAULT_COLUMNS.size() + " columns but found " + fields.size());
+                }
+                return BookImportRow.of(line, Book.builder()
+                        .title(fields.get(title))
+                        .autor(fields.get(autor))
+                        .isbn(fields.get(isbn))
+                        .build());
+            }
+            finished = true;
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean isHeader(List<String> fields) {
+        List<String> names = new ArrayList<>();
+        fields.forEach(field -> names.add(field.trim().toLowerCase(Locale.ROOT)));
+        if (names.size() != DEFAULT_COLUMNS.size() || !names.containsAll(DEFAULT_COLUMNS)) {
+            return false;
+        }
+        title = names.indexOf("title");
+        autor = names.indexOf("autor");
+        isbn = names.indexOf("isbn");
+        return true;
+    }
+
+    static List<String> split(String text) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
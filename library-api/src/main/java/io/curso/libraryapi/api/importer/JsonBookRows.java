@@ -0,0 +1,72 @@
+package io.curso.libraryapi.api.importer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.curso.libraryapi.api.dto.BookDTO;
+import io.curso.libraryapi.api.mapper.BookMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Le um array JSON de livros elemento a elemento, sem carregar o corpo inteiro.
+ * Um elemento invalido encerra a leitura, porque o parser nao tem como se realinhar.
+ */
+public class JsonBookRows implements Iterator<BookImportRow> {
+
+    private final JsonParser parser;
+    private long row;
+    private BookImportRow next;
+    private boolean finished;
+
+    public JsonBookRows(ObjectMapper objectMapper, InputStream body) throws IOException {
+        this.parser = objectMapper.getFactory().createParser(body);
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException("Expected a JSON array of books");
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            next = read();
+        }
+        return next != null;
+    }
+
+    @Override
+    public BookImportRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        BookImportRow current = next;
+        next = null;
+        return current;
+    }
+
+    private BookImportRow read() {
+        row++;
+        try {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.END_ARRAY) {
+                finished = true;
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                finished = true;
+                return BookImportRow.error(row, "expected a book object");
+            }
+            return BookImportRow.of(row, BookMapper.toEntity(parser.readValueAs(BookDTO.class)));
+        } catch (JsonProcessingException e) {
+            finished = true;
+            return BookImportRow.error(row, "invalid JSON: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package io.curso.libraryapi.api.mapper;
+
+import io.curso.libraryapi.api.dto.BookDTO;
+import io.curso.libraryapi.api.repository.Book;
+
+public final class BookMapper {
+
+    private BookMapper() {
+    }
+
+    public static BookDTO toDto(Book book) {
+        if (book == null) {
+            return null;
+        }
+        return new BookDTO(book.getId(), book.getTitle(), book.getAutor(), book.getIsbn());
+    }
+
+    public static Book toEntity(BookDTO dto) {
+        if (dto == null) {
+            return null;
+        }
+        return new Book(dto.getId(), dto.getTitle(), dto.getAutor(), dto.getIsbn(), null);
+    }
+}
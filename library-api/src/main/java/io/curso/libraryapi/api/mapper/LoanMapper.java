@@ -0,0 +1,17 @@
+package io.curso.libraryapi.api.mapper;
+
+import io.curso.libraryapi.api.dto.LoanDto;
+import io.curso.libraryapi.api.repository.Loan;
+
+public final class LoanMapper {
+
+    private LoanMapper() {
+    }
+
+    public static LoanDto toDto(Loan loan) {
+        if (loan == null) {
+            return null;
+        }
+        return new LoanDto(loan.getId(), null, loan.getCustomer(), loan.getCustomerEmail(), BookMapper.toDto(loan.getBook()));
+    }
+}
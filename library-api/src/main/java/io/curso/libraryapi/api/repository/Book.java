@@ -3,7 +3,9 @@ package io.curso.libraryapi.api.repository;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import javax.persistence.*;
 import java.util.List;
@@ -13,15 +15,25 @@ import java.util.List;
 @AllArgsConstructor
 @Data
 @Entity
-@Table
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_book_isbn", columnNames = "isbn"))
 public class Book {
 
+    // sequence com pool: o IDENTITY obriga um insert por vez e desliga o batch do JDBC
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_seq")
+    @SequenceGenerator(name = "book_seq", sequenceName = "book_seq", allocationSize = 50)
     private Long id;
     private String title;
     private String autor;
     private String isbn;
+    // fora do equals/hashCode/toString: senao logar ou comparar um livro inicializa todos os emprestimos dele
     @OneToMany(mappedBy = "book")
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     private List<Loan> loans;
+
+    // usado pelas consultas "select new Book(...)": leitura sem entidade gerenciada e sem a colecao de emprestimos
+    public Book(Long id, String title, String autor, String isbn) {
+        this(id, title, autor, isbn, null);
+    }
 }
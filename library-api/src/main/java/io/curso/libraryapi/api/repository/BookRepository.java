@@ -1,11 +1,40 @@
 package io.curso.libraryapi.api.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
-public interface BookRepository extends JpaRepository<Book,  Long> {
+public interface BookRepository extends JpaRepository<Book,  Long>, BookRepositoryCustom {
     boolean existsByIsbn(String isbn);
 
     Optional<Book> findByIsbn(String isbn);
+
+    @Query(" select b.id as id, b.isbn as isbn from Book b ")
+    List<IsbnEntry> findAllIsbnEntries();
+
+    @Query(" select b.id as id, b.title as title, b.autor as autor, b.isbn as isbn from Book b ")
+    List<BookSearchEntry> findAllSearchEntries();
+
+    @Query(" select b.isbn from Book b where b.isbn in :isbns ")
+    List<String> findExistingIsbns( @Param("isbns") Collection<String> isbns );
+
+    @Query(" select new io.curso.libraryapi.api.repository.Book(b.id, b.title, b.autor, b.isbn) from Book b where b.id = :id ")
+    Optional<Book> findDetailsById( @Param("id") Long id );
+
+    @Query(" select new io.curso.libraryapi.api.repository.Book(b.id, b.title, b.autor, b.isbn) from Book b where b.isbn = :isbn ")
+    Optional<Book> findDetailsByIsbn( @Param("isbn") String isbn );
+
+    @Query(" select new io.curso.libraryapi.api.repository.Book(b.id, b.title, b.autor, b.isbn) from Book b where b.id in :ids ")
+    List<Book> findDetailsByIds( @Param("ids") Collection<Long> ids );
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query(" update Book b set b.title = :title, b.autor = :autor where b.id = :id ")
+    int updateDetails( @Param("id") Long id, @Param("title") String title, @Param("autor") String autor );
 }
@@ -0,0 +1,20 @@
+package io.curso.libraryapi.api.repository;
+
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+public interface BookRepositoryCustom {
+
+    /**
+     * Busca por exemplo ordenada por id, a partir do id informado (exclusivo), sem consulta de contagem.
+     */
+    List<Book> findAllAfter(Example<Book> example, Long afterId, int limit);
+
+    /**
+     * Busca por exemplo paginada, devolvendo livros fora do contexto de persistencia e sem a colecao de emprestimos.
+     */
+    Page<Book> findDetails(Example<Book> example, Pageable pageable);
+}
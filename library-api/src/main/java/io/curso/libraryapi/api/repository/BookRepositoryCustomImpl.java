@@ -0,0 +1,84 @@
+package io.curso.libraryapi.api.repository;
+
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.convert.QueryByExamplePredicateBuilder;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.repository.support.PageableExecutionUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CompoundSelection;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BookRepositoryCustomImpl implements BookRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Book> findAllAfter(Example<Book> example, Long afterId, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> query = cb.createQuery(Book.class);
+        Root<Book> root = query.from(Book.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        Predicate byExample = QueryByExamplePredicateBuilder.getPredicate(root, cb, example);
+        if (byExample != null) {
+            predicates.add(byExample);
+        }
+        if (afterId != null) {
+            predicates.add(cb.greaterThan(root.get("id"), afterId));
+        }
+
+        query.select(details(cb, root))
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(cb.asc(root.get("id")));
+
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+
+    @Override
+    public Page<Book> findDetails(Example<Book> example, Pageable pageable) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> query = cb.createQuery(Book.class);
+        Root<Book> root = query.from(Book.class);
+        Predicate byExample = QueryByExamplePredicateBuilder.getPredicate(root, cb, example);
+        query.select(details(cb, root));
+        if (byExample != null) {
+            query.where(byExample);
+        }
+        if (pageable.getSort().isSorted()) {
+            query.orderBy(QueryUtils.toOrders(pageable.getSort(), root, cb));
+        }
+
+        TypedQuery<Book> typedQuery = entityManager.createQuery(query);
+        if (pageable.isPaged()) {
+            typedQuery.setFirstResult((int) pageable.getOffset()).setMaxResults(pageable.getPageSize());
+        }
+        return PageableExecutionUtils.getPage(typedQuery.getResultList(), pageable, () -> count(example));
+    }
+
+    private long count(Example<Book> example) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<Book> root = query.from(Book.class);
+        Predicate byExample = QueryByExamplePredicateBuilder.getPredicate(root, cb, example);
+        query.select(cb.count(root));
+        if (byExample != null) {
+            query.where(byExample);
+        }
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    private static CompoundSelection<Book> details(CriteriaBuilder cb, Root<Book> root) {
+        return cb.construct(Book.class, root.get("id"), root.get("title"), root.get("autor"), root.get("isbn"));
+    }
+}
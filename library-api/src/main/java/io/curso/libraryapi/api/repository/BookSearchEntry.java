@@ -0,0 +1,11 @@
+package io.curso.libraryapi.api.repository;
+
+public interface BookSearchEntry {
+    Long getId();
+
+    String getTitle();
+
+    String getAutor();
+
+    String getIsbn();
+}
@@ -0,0 +1,7 @@
+package io.curso.libraryapi.api.repository;
+
+public interface IsbnEntry {
+    Long getId();
+
+    String getIsbn();
+}
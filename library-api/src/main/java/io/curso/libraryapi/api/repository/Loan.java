@@ -13,9 +13,18 @@ import java.time.LocalDate;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
+// uk_loan_open_book: o H2 1.4 nao tem indice parcial, entao open_book_id so e preenchido enquanto o emprestimo esta aberto
+// e o banco recusa um segundo emprestimo aberto do mesmo livro (os devolvidos ficam com null, que nao colide)
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_loan_open_book", columnNames = "open_book_id"),
+        indexes = {
+        @Index(name = "idx_loan_book_returned", columnList = "id_book, returned"),
+        @Index(name = "idx_loan_date_returned", columnList = "loan_date, returned"),
+        @Index(name = "idx_loan_customer_returned", columnList = "customer, returned")
+})
 public class Loan {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "loan_seq")
+    @SequenceGenerator(name = "loan_seq", sequenceName = "loan_seq", allocationSize = 50)
     private Long id;
 
     @Column
@@ -28,9 +37,18 @@ public class Loan {
     @ManyToOne
     private Book book;
 
-    @Column
+    @Column(name = "loan_date")
     private LocalDate loanDate;
 
     @Column
     private Boolean returned;
+
+    @Column(name = "open_book_id")
+    private Long openBookId;
+
+    @PrePersist
+    @PreUpdate
+    void syncOpenBookId() {
+        openBookId = Boolean.TRUE.equals(returned) || book == null ? null : book.getId();
+    }
 }
@@ -3,25 +3,114 @@ package io.curso.libraryapi.api.repository;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-public interface LoanRepository extends JpaRepository<Loan, Long> {
+public interface LoanRepository extends JpaRepository<Loan, Long>, LoanRepositoryCustom {
 
     @Query(value = " select case when ( count(l.id) > 0 ) then true else false end " +
             " from Loan l where l.book = :book and ( l.returned is null or l.returned is false ) ")
     boolean existsByBookAndNotReturned( @Param("book") Book book );
 
-    Page<Loan> findByBookIsbnOrCustomer(String isbn, String customer, Pageable pageable);
+    // limit 1 pelo idx_loan_book_returned: so confirma se o livro tem algum emprestimo aberto, sem contar todos
+    @Query(" select l.id from Loan l where l.book.id = :bookId and ( l.returned is null or l.returned is false ) ")
+    List<Long> findOpenLoanIdsByBook( @Param("bookId") Long bookId, Pageable pageable );
 
+    // join fetch explicito: a versao derivada (l.book.isbn com entity graph) nao aproveitava o indice de isbn no H2
+    @Query(value = " select l from Loan l join fetch l.book b where b.isbn = :isbn ",
+            countQuery = " select count(l) from Loan l join l.book b where b.isbn = :isbn ")
+    Page<Loan> findByBookIsbn( @Param("isbn") String isbn, Pageable pageable );
+
+    // UNION no lugar do OR: cada lado resolve pelo proprio indice (uk_book_isbn + idx_loan_book_returned e idx_loan_customer_returned)
+    String ISBN_OR_CUSTOMER_IDS = " select l.id from loan l inner join book b on b.id = l.id_book where b.isbn = :isbn " +
+            " union select l.id from loan l where l.customer = :customer ";
+
+    @Query(value = " select count(*) from ( " + ISBN_OR_CUSTOMER_IDS + " ) u ", nativeQuery = true)
+    long countByBookIsbnOrCustomer( @Param("isbn") String isbn, @Param("customer") String customer );
+
+    @EntityGraph(attributePaths = "book")
     Page<Loan> findByBook(Book book, Pageable pageable);
 
-    @Query(" select l from Loan l where l.loanDate <= :threeDaysAgo and ( l.returned is null or l.returned is false ) ")
+    @EntityGraph(attributePaths = "book")
+    Page<Loan> findByCustomer(String customer, Pageable pageable);
+
+    @Query(" select l from Loan l join fetch l.book where l.customer = :customer and ( l.returned is null or l.returned is false ) " +
+            " order by l.loanDate, l.id ")
+    List<Loan> findOpenByCustomer( @Param("customer") String customer );
+
+    @Query(" select l from Loan l join fetch l.book where l.book.isbn = :isbn and l.id > :afterId order by l.id ")
+    List<Loan> findByBookIsbnAfter( @Param("isbn") String isbn, @Param("afterId") Long afterId, Pageable pageable );
+
+    @Query(" select l from Loan l join fetch l.book where l.customer = :customer and l.id > :afterId order by l.id ")
+    List<Loan> findByCustomerAfter( @Param("customer") String customer, @Param("afterId") Long afterId, Pageable pageable );
+
+    @Query(value = " select u.id from ( select l.id from loan l inner join book b on b.id = l.id_book where b.isbn = :isbn and l.id > :afterId " +
+            " union select l.id from loan l where l.customer = :customer and l.id > :afterId ) u order by u.id limit :limit ", nativeQuery = true)
+    List<Number> findIdsByBookIsbnOrCustomerAfter( @Param("isbn") String isbn,
+                                                  @Param("customer") String customer,
+                                                  @Param("afterId") Long afterId,
+                                                  @Param("limit") int limit );
+
+    // em ordem de id: quem precisa de outra ordem reordena pelos ids que pediu
+    @Query(" select l from Loan l join fetch l.book where l.id in :ids order by l.id ")
+    List<Loan> findWithBookByIds( @Param("ids") Collection<Long> ids );
+
+    @Query(" select l from Loan l join fetch l.book where l.loanDate <= :threeDaysAgo and ( l.returned is null or l.returned is false ) ")
     List<Loan> findByLoanDateLessThanAndNotReturned( @Param("threeDaysAgo") LocalDate threeDaysAgo );
+
+    @Query(" select l from Loan l join fetch l.book where l.loanDate <= :threeDaysAgo and ( l.returned is null or l.returned is false ) " +
+            " order by l.loanDate, l.id ")
+    List<Loan> findFirstLateLoans( @Param("threeDaysAgo") LocalDate threeDaysAgo, Pageable pageable );
+
+    @Query(" select l from Loan l join fetch l.book where l.loanDate <= :threeDaysAgo and ( l.returned is null or l.returned is false ) " +
+            " and ( l.loanDate > :lastLoanDate or ( l.loanDate = :lastLoanDate and l.id > :lastId ) ) " +
+            " order by l.loanDate, l.id ")
+    List<Loan> findLateLoansAfter( @Param("threeDaysAgo") LocalDate threeDaysAgo,
+                                   @Param("lastLoanDate") LocalDate lastLoanDate,
+                                   @Param("lastId") Long lastId,
+                                   Pageable pageable );
+
+    @Query(" select distinct l.book.id from Loan l where l.returned is null or l.returned is false ")
+    List<Long> findBookIdsWithOpenLoans();
+
+    @Query(" select l.id as id, l.loanDate as loanDate from Loan l where l.returned is null or l.returned is false ")
+    List<OpenLoanEntry> findOpenLoanEntries();
+
+    @Query(" select l from Loan l join fetch l.book where l.id in :ids and ( l.returned is null or l.returned is false ) " +
+            " order by l.loanDate, l.id ")
+    List<Loan> findOpenLoansByIds( @Param("ids") Collection<Long> ids );
+
+    @Query(" select l.loanDate as loanDate, count(l.id) as total from Loan l where l.returned is null or l.returned is false group by l.loanDate ")
+    List<LoanDateCount> countOpenLoansByDate();
+
+    @Query(" select l.loanDate as loanDate, count(l.id) as total from Loan l where l.loanDate >= :since group by l.loanDate ")
+    List<LoanDateCount> countLoansByDateSince( @Param("since") LocalDate since );
+
+    @Query(" select l.book.isbn as isbn, count(l.id) as total from Loan l group by l.book.isbn order by count(l.id) desc ")
+    List<IsbnCount> countLoansByIsbn( Pageable pageable );
+
+    @Query(" select l.id as id, l.book.id as bookId, l.book.isbn as isbn, l.returned as returned from Loan l where l.id in :ids ")
+    List<LoanReturnEntry> findReturnEntriesByIds( @Param("ids") Collection<Long> ids );
+
+    @Query(" select l.id as id, l.book.id as bookId, l.book.isbn as isbn, l.returned as returned from Loan l " +
+            " where l.book.isbn in :isbns and ( l.returned is null or l.returned is false ) ")
+    List<LoanReturnEntry> findOpenReturnEntriesByIsbns( @Param("isbns") Collection<String> isbns );
+
+    @Query(" select l.id from Loan l where l.id in :ids and ( l.returned is null or l.returned is false ) ")
+    List<Long> findOpenLoanIds( @Param("ids") Collection<Long> ids );
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query(" update Loan l set l.returned = true, l.openBookId = null where l.id in :ids and ( l.returned is null or l.returned is false ) ")
+    int markReturned( @Param("ids") Collection<Long> ids );
 }
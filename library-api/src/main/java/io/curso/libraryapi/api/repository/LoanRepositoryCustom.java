@@ -0,0 +1,32 @@
+package io.curso.libraryapi.api.repository;
+
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+public interface LoanRepositoryCustom {
+
+    /**
+     * Ids da pagina de emprestimos do isbn ou do cliente informados, vindos de um UNION e ordenados pela ordenacao
+     * da pagina (desempate por id). So as propriedades de {@link #isbnOrCustomerSortColumn} podem ser ordenadas.
+     */
+    List<Long> findIdsByBookIsbnOrCustomer(String isbn, String customer, Pageable pageable);
+
+    /**
+     * @return a coluna do UNION para a propriedade de ordenacao, ou null se ela nao puder ser ordenada nessa consulta
+     */
+    static String isbnOrCustomerSortColumn(String property) {
+        switch (property) {
+            case "id":
+                return "id";
+            case "loanDate":
+                return "loan_date";
+            case "customer":
+                return "customer";
+            case "returned":
+                return "returned";
+            default:
+                return null;
+        }
+    }
+}
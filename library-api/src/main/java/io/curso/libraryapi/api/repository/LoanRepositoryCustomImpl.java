@@ -0,0 +1,54 @@
+package io.curso.libraryapi.api.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public class LoanRepositoryCustomImpl implements LoanRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Long> findIdsByBookIsbnOrCustomer(String isbn, String customer, Pageable pageable) {
+        // os dois lados do UNION trazem as colunas ordenadas; os nomes vem da lista fechada, nunca da requisicao
+        Set<String> columns = new LinkedHashSet<>();
+        List<String> orders = new ArrayList<>();
+        for (Sort.Order order : pageable.getSort()) {
+            String column = LoanRepositoryCustom.isbnOrCustomerSortColumn(order.getProperty());
+            if (column == null) {
+                throw new IllegalArgumentException("Loans cannot be sorted by " + order.getProperty());
+            }
+            if (columns.add(column)) {
+                orders.add("u." + column + (order.isAscending() ? " asc" : " desc"));
+            }
+        }
+        if (columns.add("id")) {
+            orders.add("u.id asc");
+        }
+        StringBuilder select = new StringBuilder();
+        columns.forEach(column -> select.append(select.length() == 0 ? "" : ", ").append("l.").append(column));
+
+        Query query = entityManager.createNativeQuery(" select u.id from ( " +
+                " select " + select + " from loan l inner join book b on b.id = l.id_book where b.isbn = :isbn " +
+                " union select " + select + " from loan l where l.customer = :customer " +
+                " ) u order by " + String.join(", ", orders))
+                .setParameter("isbn", isbn)
+                .setParameter("customer", customer);
+        if (pageable.isPaged()) {
+            query.setFirstResult((int) pageable.getOffset()).setMaxResults(pageable.getPageSize());
+        }
+
+        List<?> rows = query.getResultList();
+        List<Long> ids = new ArrayList<>(rows.size());
+        rows.forEach(id -> ids.add(((Number) id).longValue()));
+        return ids;
+    }
+}
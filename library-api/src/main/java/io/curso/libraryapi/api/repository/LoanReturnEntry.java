@@ -0,0 +1,11 @@
+package io.curso.libraryapi.api.repository;
+
+public interface LoanReturnEntry {
+    Long getId();
+
+    Long getBookId();
+
+    String getIsbn();
+
+    Boolean getReturned();
+}
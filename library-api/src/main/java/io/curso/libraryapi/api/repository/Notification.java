@@ -0,0 +1,62 @@
+package io.curso.libraryapi.api.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Outbox de e-mails: gravado pela varredura de atrasos e consumido pelo worker de envio.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_notification_loan_date", columnNames = {"loan_id", "reference_date"}),
+        indexes = @Index(name = "idx_notification_status_next", columnList = "status, next_attempt_at"))
+public class Notification {
+
+    // SENDING: reservado por um drain ate nextAttemptAt; vencido o prazo, outro drain pode reservar de novo
+    public enum Status { PENDING, SENDING, SENT, FAILED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "notification_seq")
+    @SequenceGenerator(name = "notification_seq", sequenceName = "notification_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "loan_id")
+    private Long loanId;
+
+    @Column(name = "reference_date")
+    private LocalDate referenceDate;
+
+    @Column
+    private String recipient;
+
+    @Column
+    private String message;
+
+    @Enumerated(EnumType.STRING)
+    @Column
+    private Status status;
+
+    @Column
+    private int attempts;
+
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "sent_at")
+    private LocalDateTime sentAt;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+    @Column(name = "claim_token")
+    private String claimToken;
+}
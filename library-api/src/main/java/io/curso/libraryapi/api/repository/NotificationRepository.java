@@ -0,0 +1,38 @@
+package io.curso.libraryapi.api.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface NotificationRepository extends JpaRepository<Notification, Long> {
+
+    @Query(" select n.loanId from Notification n where n.referenceDate = :referenceDate and n.loanId in :loanIds ")
+    List<Long> findNotifiedLoanIds( @Param("referenceDate") LocalDate referenceDate, @Param("loanIds") Collection<Long> loanIds );
+
+    @Query(" select n.id from Notification n where n.status in :statuses and n.nextAttemptAt <= :now order by n.id ")
+    List<Long> findDueIds( @Param("statuses") Collection<Notification.Status> statuses, @Param("now") LocalDateTime now, Pageable pageable );
+
+    // a reserva repete o filtro da busca: so um drain consegue mudar cada linha, os outros recebem 0 linhas alteradas
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query(" update Notification n set n.status = :claimed, n.claimToken = :token, n.nextAttemptAt = :leaseUntil " +
+            " where n.id in :ids and n.status in :statuses and n.nextAttemptAt <= :now ")
+    int claim( @Param("ids") Collection<Long> ids,
+               @Param("statuses") Collection<Notification.Status> statuses,
+               @Param("now") LocalDateTime now,
+               @Param("claimed") Notification.Status claimed,
+               @Param("token") String token,
+               @Param("leaseUntil") LocalDateTime leaseUntil );
+
+    List<Notification> findByClaimTokenOrderById(String claimToken);
+
+    long countByStatus(Notification.Status status);
+}
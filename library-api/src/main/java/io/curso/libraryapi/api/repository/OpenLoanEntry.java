@@ -0,0 +1,9 @@
+package io.curso.libraryapi.api.repository;
+
+import java.time.LocalDate;
+
+public interface OpenLoanEntry {
+    Long getId();
+
+    LocalDate getLoanDate();
+}
@@ -0,0 +1,33 @@
+package io.curso.libraryapi.api.resource;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Executa a chamada bloqueante fora da thread do servlet; com o pool saturado responde 503.
+ */
+final class AsyncCalls {
+
+    private AsyncCalls() {
+    }
+
+    static <T> CompletableFuture<T> supply(Executor executor, Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Server busy, try again later");
+        }
+    }
+
+    static CompletableFuture<Void> run(Executor executor, Runnable call) {
+        return supply(executor, () -> {
+            call.run();
+            return null;
+        });
+    }
+}
@@ -1,108 +1,178 @@
 package io.curso.libraryapi.api.resource;
 
 import io.curso.libraryapi.api.dto.BookDTO;
+import io.curso.libraryapi.api.dto.CursorPageDTO;
 import io.curso.libraryapi.api.dto.LoanDto;
+import io.curso.libraryapi.api.importer.CsvBookRows;
+import io.curso.libraryapi.api.importer.JsonBookRows;
+import io.curso.libraryapi.api.mapper.BookMapper;
+import io.curso.libraryapi.api.mapper.LoanMapper;
 import io.curso.libraryapi.api.repository.Book;
 import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.config.AsyncApiConfig;
+import io.curso.libraryapi.service.BookImportResult;
+import io.curso.libraryapi.service.BookImportService;
 import io.curso.libraryapi.service.BookService;
 import io.curso.libraryapi.service.LoanService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/books")
-@RequiredArgsConstructor
 @Api("Book API")
 @Slf4j
 public class BookController {
 
     private final BookService service;
-    private final ModelMapper modelMapper;
     private final LoanService loanService;
+    private final BookImportService importService;
+    private final ObjectMapper objectMapper;
+    // pool da API no modo assincrono, execucao direta na thread do servlet fora dele (ver AsyncApiConfig)
+    private final Executor executor;
+
+    public BookController(BookService service, LoanService loanService, BookImportService importService,
+                          ObjectMapper objectMapper, @Qualifier(AsyncApiConfig.API_EXECUTOR) Executor executor) {
+        this.service = service;
+        this.loanService = loanService;
+        this.importService = importService;
+        this.objectMapper = objectMapper;
+        this.executor = executor;
+    }
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
     @ApiOperation("Create a book")
-    public BookDTO create(@RequestBody @Valid BookDTO dto ){
+    public CompletableFuture<BookDTO> create(@RequestBody @Valid BookDTO dto ){
         log.info(" creating a book for isbn: {} ", dto.getIsbn());
-        Book entity = modelMapper.map( dto, Book.class );
-        entity = service.save(entity);
-        return modelMapper.map(entity, BookDTO.class);
+        return AsyncCalls.supply(executor, () -> {
+            Book entity = BookMapper.toEntity(dto);
+            entity = service.save(entity);
+            return BookMapper.toDto(entity);
+        });
+    }
+
+    // a importacao le o corpo da requisicao em streaming e continua na thread do servlet
+    @PostMapping(value = "import", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation("Imports a JSON array of books")
+    public BookImportResult importJson( InputStream body ) throws IOException {
+        log.info(" importing books from JSON ");
+        JsonBookRows rows;
+        try {
+            rows = new JsonBookRows(objectMapper, body);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (JsonProcessingException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "invalid JSON: " + e.getOriginalMessage());
+        }
+        return importService.importBooks(rows);
+    }
+
+    @PostMapping(value = "import", consumes = "text/csv")
+    @ApiOperation("Imports a CSV of books (title,autor,isbn)")
+    public BookImportResult importCsv( InputStream body ){
+        log.info(" importing books from CSV ");
+        return importService.importBooks(new CsvBookRows(body));
     }
 
     @GetMapping("{id}")
     @ApiOperation("Get a book details by id")
-    public BookDTO get( @PathVariable Long id ){
+    public CompletableFuture<BookDTO> get( @PathVariable Long id ){
         log.info(" obtaining details for book id: {} ", id);
-        return service
+        return AsyncCalls.supply(executor, () -> service
                 .getById(id)
-                .map( book -> modelMapper.map(book, BookDTO.class)  )
-                .orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+                .map( BookMapper::toDto )
+                .orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) ));
     }
 
     @DeleteMapping("{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     @ApiOperation("Deletes a book by id")
-    public void delete(@PathVariable Long id){
+    public CompletableFuture<Void> delete(@PathVariable Long id){
         log.info(" deleting book of id: {} ", id);
-        Book book = service.getById(id).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
-        service.delete(book);
+        return AsyncCalls.run(executor, () -> {
+            Book book = service.getByIdForWrite(id).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+            service.delete(book);
+        });
     }
 
     @PutMapping("{id}")
     @ApiOperation("Updates a book")
-    public BookDTO update( @PathVariable Long id, @RequestBody @Valid BookDTO dto){
+    public CompletableFuture<BookDTO> update( @PathVariable Long id, @RequestBody @Valid BookDTO dto){
         log.info(" updating book of id: {} ", id);
-        return service.getById(id).map( book -> {
-
-            book.setAutor(dto.getAutor());
-            book.setTitle(dto.getTitle());
-            book = service.update(book);
-            return modelMapper.map(book, BookDTO.class);
-
-        }).orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
+        // o livro alterado e sempre uma copia, lida do banco principal
+        return AsyncCalls.supply(executor, () -> service.getByIdForWrite(id).map( book -> service.update( Book.builder()
+                .id(book.getId())
+                .isbn(book.getIsbn())
+                .title(dto.getTitle())
+                .autor(dto.getAutor())
+                .build() )
+        ).map( BookMapper::toDto )
+                .orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) ));
     }
 
     @GetMapping
     @ApiOperation("Lists books by params")
-    public Page<BookDTO> find( BookDTO dto, Pageable pageRequest ){
-        Book filter = modelMapper.map(dto, Book.class);
-        Page<Book> result = service.find(filter, pageRequest);
-        List<BookDTO> list = result.getContent()
-                .stream()
-                .map(entity -> modelMapper.map(entity, BookDTO.class))
-                .collect(Collectors.toList());
-
-        return new PageImpl<BookDTO>( list, pageRequest, result.getTotalElements() );
+    public CompletableFuture<Page<BookDTO>> find( BookDTO dto, Pageable pageRequest ){
+        return AsyncCalls.supply(executor, () -> {
+            Book filter = BookMapper.toEntity(dto);
+            Page<Book> result = service.find(filter, pageRequest);
+            List<BookDTO> list = result.getContent()
+                    .stream()
+                    .map(BookMapper::toDto)
+                    .collect(Collectors.toList());
+
+            return new PageImpl<BookDTO>( list, pageRequest, result.getTotalElements() );
+        });
+    }
+
+    @GetMapping(params = "cursor")
+    @ApiOperation("Lists books by params, continuing from an opaque cursor")
+    public CompletableFuture<CursorPageDTO<BookDTO>> findByCursor( BookDTO dto, @RequestParam String cursor,
+                                                                   @RequestParam(defaultValue = "" + CursorToken.DEFAULT_SIZE) int size ){
+        return AsyncCalls.supply(executor, () -> {
+            Book filter = BookMapper.toEntity(dto);
+            Slice<Book> result = service.findAfter(filter, CursorToken.decode(cursor), CursorToken.checkSize(size));
+            List<BookDTO> list = result.getContent()
+                    .stream()
+                    .map(BookMapper::toDto)
+                    .collect(Collectors.toList());
+
+            String next = result.hasNext() ? CursorToken.encode(list.get(list.size() - 1).getId()) : null;
+            return new CursorPageDTO<>( list, result.getSize(), next );
+        });
     }
 
     @GetMapping("{id}/loans")
-    public Page<LoanDto> loansByBook(@PathVariable Long id, Pageable pageable ){
-        Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
-        Page<Loan> result = loanService.getLoansByBook(book, pageable);
-        List<LoanDto> list = result.getContent()
-                .stream()
-                .map(loan -> {
-                    Book loanBook = loan.getBook();
-                    BookDTO bookDTO = modelMapper.map(loanBook, BookDTO.class);
-                    LoanDto loanDTO = modelMapper.map(loan, LoanDto.class);
-                    loanDTO.setBook(bookDTO);
-                    return loanDTO;
-                }).collect(Collectors.toList());
-        return new PageImpl<LoanDto>(list, pageable, result.getTotalElements());
+    public CompletableFuture<Page<LoanDto>> loansByBook(@PathVariable Long id, Pageable pageable ){
+        return AsyncCalls.supply(executor, () -> {
+            Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+            Page<Loan> result = loanService.getLoansByBook(book, pageable);
+            List<LoanDto> list = result.getContent()
+                    .stream()
+                    .map(LoanMapper::toDto)
+                    .collect(Collectors.toList());
+            return new PageImpl<LoanDto>(list, pageable, result.getTotalElements());
+        });
     }
 
 }
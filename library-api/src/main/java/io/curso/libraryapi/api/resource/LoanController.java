@@ -1,63 +1,121 @@
 package io.curso.libraryapi.api.resource;
 
-import io.curso.libraryapi.api.dto.BookDTO;
+import io.curso.libraryapi.api.dto.BulkReturnDTO;
+import io.curso.libraryapi.api.dto.CursorPageDTO;
 import io.curso.libraryapi.api.dto.LoanDto;
 import io.curso.libraryapi.api.dto.LoanFilterDTO;
 import io.curso.libraryapi.api.dto.ReturnedDTO;
+import io.curso.libraryapi.api.mapper.LoanMapper;
 import io.curso.libraryapi.api.repository.Book;
 import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.config.AsyncApiConfig;
 import io.curso.libraryapi.service.BookService;
+import io.curso.libraryapi.service.LoanReturnResult;
 import io.curso.libraryapi.service.LoanService;
-import lombok.RequiredArgsConstructor;
-import org.modelmapper.ModelMapper;
+import io.curso.libraryapi.service.LoanStatistics;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/loans")
-@RequiredArgsConstructor
 public class LoanController {
 
     private final LoanService service;
     private final BookService bookService;
-    private final ModelMapper modelMapper;
+    private final Executor executor;
+
+    public LoanController(LoanService service, BookService bookService,
+                          @Qualifier(AsyncApiConfig.API_EXECUTOR) Executor executor) {
+        this.service = service;
+        this.bookService = bookService;
+        this.executor = executor;
+    }
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
-    public Long create(@RequestBody LoanDto dto){
-        Book book = bookService.getBookByIsbn(dto.getIsbn()).orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST ,"Book not found for passed isbn"));
-        Loan entity = Loan.builder().book(book).customerEmail(dto.getEmail()).customer(dto.getCustomer()).loanDate(LocalDate.now()).build();
+    public CompletableFuture<Long> create(@RequestBody LoanDto dto){
+        return AsyncCalls.supply(executor, () -> {
+            // o livro do cache ou da replica basta (so o id e usado); se nao aparecer, confirma no banco principal
+            Book book = bookService.getBookByIsbn(dto.getIsbn())
+                    .map(Optional::of)
+                    .orElseGet(() -> bookService.getBookByIsbnForWrite(dto.getIsbn()))
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST ,"Book not found for passed isbn"));
+            Loan entity = Loan.builder().book(book).customerEmail(dto.getEmail()).customer(dto.getCustomer()).loanDate(LocalDate.now()).build();
 
-        entity = service.save(entity);
-        return entity.getId();
+            entity = service.save(entity);
+            return entity.getId();
+        });
     }
 
     @PatchMapping("/{id}")
-    public void returnBook(@PathVariable Long id, @RequestBody ReturnedDTO dto){
-        Loan loan = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
-        loan.setReturned(dto.getReturned());
-        service.update(loan);
+    public CompletableFuture<Void> returnBook(@PathVariable Long id, @RequestBody ReturnedDTO dto){
+        return AsyncCalls.run(executor, () -> {
+            Loan loan = service.getByIdForWrite(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+            loan.setReturned(dto.getReturned());
+            service.update(loan);
+        });
+    }
+
+    @PostMapping("/returns")
+    public CompletableFuture<List<LoanReturnResult>> returnBooks(@RequestBody BulkReturnDTO dto){
+        boolean noIds = dto.getLoanIds() == null || dto.getLoanIds().isEmpty();
+        boolean noIsbns = dto.getIsbns() == null || dto.getIsbns().isEmpty();
+        if (noIds && noIsbns) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Inform loan ids or isbns to return");
+        }
+        return AsyncCalls.supply(executor, () -> service.returnLoans(dto.getLoanIds(), dto.getIsbns()));
     }
 
     @GetMapping
-    public Page<LoanDto> find(LoanFilterDTO dto, Pageable pageRequest){
-        Page<Loan> result = service.find(dto, pageRequest);
-        List<LoanDto> loans = result.getContent().stream().map(entity -> {
-            BookDTO bookDto = modelMapper.map(entity.getBook(), BookDTO.class);
-            LoanDto loanDto = modelMapper.map(entity, LoanDto.class);
-            loanDto.setBook(bookDto);
-            return loanDto;
-        }).collect(Collectors.toList());
-        return new PageImpl<LoanDto>(loans, pageRequest, result.getTotalElements());
+    public CompletableFuture<Page<LoanDto>> find(LoanFilterDTO dto, Pageable pageRequest){
+        return AsyncCalls.supply(executor, () -> {
+            Page<Loan> result = service.find(dto, pageRequest);
+            List<LoanDto> loans = result.getContent().stream().map(LoanMapper::toDto).collect(Collectors.toList());
+            return new PageImpl<LoanDto>(loans, pageRequest, result.getTotalElements());
+        });
+    }
+
+    @GetMapping("/customers/{customer}")
+    public CompletableFuture<Page<LoanDto>> loansByCustomer(@PathVariable String customer, Pageable pageRequest){
+        return AsyncCalls.supply(executor, () -> {
+            Page<Loan> result = service.getLoansByCustomer(customer, pageRequest);
+            List<LoanDto> loans = result.getContent().stream().map(LoanMapper::toDto).collect(Collectors.toList());
+            return new PageImpl<LoanDto>(loans, pageRequest, result.getTotalElements());
+        });
+    }
+
+    @GetMapping("/customers/{customer}/open")
+    public CompletableFuture<List<LoanDto>> openLoansByCustomer(@PathVariable String customer){
+        return AsyncCalls.supply(executor, () -> service.getOpenLoansByCustomer(customer).stream().map(LoanMapper::toDto).collect(Collectors.toList()));
+    }
+
+    @GetMapping("/statistics")
+    public CompletableFuture<LoanStatistics> statistics(){
+        return AsyncCalls.supply(executor, service::getStatistics);
+    }
 
+    @GetMapping(params = "cursor")
+    public CompletableFuture<CursorPageDTO<LoanDto>> findByCursor(LoanFilterDTO dto, @RequestParam String cursor,
+                                                                  @RequestParam(defaultValue = "" + CursorToken.DEFAULT_SIZE) int size){
+        return AsyncCalls.supply(executor, () -> {
+            Slice<Loan> result = service.findAfter(dto, CursorToken.decode(cursor), CursorToken.checkSize(size));
+            List<LoanDto> loans = result.getContent().stream().map(LoanMapper::toDto).collect(Collectors.toList());
+            String next = result.hasNext() ? CursorToken.encode(loans.get(loans.size() - 1).getId()) : null;
+            return new CursorPageDTO<>(loans, result.getSize(), next);
+        });
     }
 }
@@ -0,0 +1,72 @@
+package io.curso.libraryapi.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executor dos controllers. No modo assincrono (application.api.async.enabled=true) as threads do Tomcat so
+ * recebem e respondem, e o trabalho bloqueante (JPA) roda em um pool limitado ao tamanho do pool de conexoes;
+ * fora dele a chamada roda na propria thread do servlet e o CompletableFuture ja volta completo.
+ */
+@Configuration
+public class AsyncApiConfig implements WebMvcConfigurer {
+
+    public static final String API_EXECUTOR = "apiExecutor";
+
+    private final boolean enabled;
+    private final int workers;
+    private final int queueCapacity;
+    private final long timeoutMillis;
+    private final MeterRegistry meterRegistry;
+
+    public AsyncApiConfig(@Value("${application.api.async.enabled:false}") boolean enabled,
+                          @Value("${application.api.async.workers:10}") int workers,
+                          @Value("${application.api.async.queue-capacity:500}") int queueCapacity,
+                          @Value("${application.api.async.timeout-ms:30000}") long timeoutMillis,
+                          MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        this.timeoutMillis = timeoutMillis;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Bean(name = API_EXECUTOR)
+    public Executor apiExecutor() {
+        if (!enabled) {
+            return new SyncTaskExecutor();
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("api-");
+        // fila cheia: recusa (503) em vez de rodar na thread do Tomcat
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        new ExecutorServiceMetrics(executor.getThreadPoolExecutor(), "api", Tags.empty()).bindTo(meterRegistry);
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(timeoutMillis);
+        Executor executor = apiExecutor();
+        if (executor instanceof AsyncTaskExecutor) {
+            configurer.setTaskExecutor((AsyncTaskExecutor) executor);
+        }
+    }
+}
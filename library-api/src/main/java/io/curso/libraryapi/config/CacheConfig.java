@@ -0,0 +1,16 @@
+package io.curso.libraryapi.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Caches do Caffeine configurados em spring.cache.* (tamanho, TTL e recordStats para as metricas do actuator).
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    public static final String BOOKS = "books";
+    public static final String BOOKS_BY_ISBN = "booksByIsbn";
+    public static final String OPEN_LOANS_BY_CUSTOMER = "openLoansByCustomer";
+}
@@ -0,0 +1,50 @@
+package io.curso.libraryapi.config;
+
+import io.curso.libraryapi.service.mail.FakeJavaMailSender;
+import io.curso.libraryapi.service.mail.TokenBucket;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class MailConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "application.threads.virtual.enabled", havingValue = "false", matchIfMissing = true)
+    public ThreadPoolTaskExecutor mailExecutor(@Value("${application.mail.workers:4}") int workers,
+                                               @Value("${application.mail.queue-capacity:100}") int queueCapacity,
+                                               MeterRegistry meterRegistry) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("mail-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        new ExecutorServiceMetrics(executor.getThreadPoolExecutor(), "mail", Tags.empty()).bindTo(meterRegistry);
+        return executor;
+    }
+
+    @Bean
+    public TokenBucket mailRateLimiter(@Value("${application.mail.rate-per-second:100}") double ratePerSecond) {
+        return new TokenBucket(ratePerSecond, ratePerSecond);
+    }
+
+    @Bean
+    @Primary
+    @Profile("fake-mail")
+    public JavaMailSender fakeJavaMailSender(@Value("${application.mail.fake.latency-ms:0}") long latencyMillis) {
+        return new FakeJavaMailSender(latencyMillis);
+    }
+}
@@ -0,0 +1,73 @@
+package io.curso.libraryapi.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Timers dos metodos anotados com {@code @Timed} (servicos, jobs e envio de email) e de toda chamada aos repositorios.
+ * Percentis e histogramas sao ligados por prefixo em {@code management.metrics.distribution.*}.
+ */
+@Configuration
+public class MetricsConfig {
+
+    public static final String REPOSITORY_TIMER = "spring.data.repository.invocations";
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+
+    @Bean
+    public RepositoryMetricsAspect repositoryMetricsAspect(MeterRegistry meterRegistry) {
+        return new RepositoryMetricsAspect(meterRegistry);
+    }
+
+    /**
+     * O Spring Data desta versao nao publica metricas dos repositorios; o aspecto cobre os metodos derivados,
+     * as {@code @Query} e os herdados do {@code JpaRepository}.
+     */
+    @Aspect
+    public static class RepositoryMetricsAspect {
+
+        private final MeterRegistry meterRegistry;
+
+        public RepositoryMetricsAspect(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+        }
+
+        @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+        public Object time(ProceedingJoinPoint pjp) throws Throwable {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            String exception = "none";
+            try {
+                return pjp.proceed();
+            } catch (Throwable e) {
+                exception = e.getClass().getSimpleName();
+                throw e;
+            } finally {
+                sample.stop(Timer.builder(REPOSITORY_TIMER)
+                        .description("Duration of repository invocations")
+                        .tag("repository", repositoryName(pjp))
+                        .tag("method", pjp.getSignature().getName())
+                        .tag("exception", exception)
+                        .register(meterRegistry));
+            }
+        }
+
+        // o alvo e o proxy do Spring Data; a interface declarada e a que identifica o repositorio
+        private static String repositoryName(ProceedingJoinPoint pjp) {
+            for (Class<?> type : pjp.getTarget().getClass().getInterfaces()) {
+                if (org.springframework.data.repository.Repository.class.isAssignableFrom(type)) {
+                    return type.getSimpleName();
+                }
+            }
+            return pjp.getSignature().getDeclaringType().getSimpleName();
+        }
+    }
+}
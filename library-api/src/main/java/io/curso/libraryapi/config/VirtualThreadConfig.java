@@ -0,0 +1,54 @@
+package io.curso.libraryapi.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Modo virtual threads (JDK 21+): requisicoes do Tomcat, jobs do {@code @Scheduled} e envios de email
+ * rodam em virtual threads, e as chamadas bloqueantes de JPA e SMTP deixam de prender threads de plataforma.
+ */
+@Configuration
+@ConditionalOnProperty(name = "application.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    public VirtualThreadConfig() {
+        if (!VirtualThreads.isSupported()) {
+            throw new IllegalStateException("application.threads.virtual.enabled=true requires JDK 21 or newer, running on "
+                    + System.getProperty("java.version"));
+        }
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService tomcatVirtualThreadExecutor() {
+        return VirtualThreads.newThreadPerTaskExecutor("tomcat-");
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandler(ExecutorService tomcatVirtualThreadExecutor) {
+        return handler -> handler.setExecutor(tomcatVirtualThreadExecutor);
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${spring.task.scheduling.pool.size:1}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadFactory(VirtualThreads.factory("scheduling-"));
+        return scheduler;
+    }
+
+    // sem pool: o limite de concorrencia faz o papel dos workers e segura quem submete, como o CallerRunsPolicy
+    @Bean
+    public SimpleAsyncTaskExecutor mailExecutor(@Value("${application.mail.workers:4}") int workers) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(VirtualThreads.factory("mail-"));
+        executor.setConcurrencyLimit(workers);
+        return executor;
+    }
+}
@@ -0,0 +1,94 @@
+package io.curso.libraryapi.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Acompanha, pelo evento JFR {@code jdk.VirtualThreadPinned}, as virtual threads que ficaram presas
+ * a carrier thread (bloqueio dentro de {@code synchronized} ou de codigo nativo).
+ * Cada ocorrencia vira uma amostra do timer {@code jvm.threads.virtual.pinned} e um log com o frame do topo.
+ */
+@Component
+@ConditionalOnProperty(name = "application.threads.virtual.enabled", havingValue = "true")
+@Slf4j
+public class VirtualThreadPinningMonitor {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final Timer pinned;
+    private final Duration threshold;
+    private AutoCloseable stream;
+
+    public VirtualThreadPinningMonitor(MeterRegistry meterRegistry,
+                                       @Value("${application.threads.virtual.pinning-threshold-ms:20}") long thresholdMillis) {
+        this.pinned = Timer.builder("jvm.threads.virtual.pinned")
+                .description("Time virtual threads spent pinned to their carrier thread")
+                .register(meterRegistry);
+        this.threshold = Duration.ofMillis(thresholdMillis);
+    }
+
+    // RecordingStream e EventSettings sao do JDK 14+, por isso a reflexao
+    @PostConstruct
+    public void start() throws ReflectiveOperationException {
+        Class<?> streamType = Class.forName("jdk.jfr.consumer.RecordingStream");
+        Object recording = streamType.getConstructor().newInstance();
+        Object settings = streamType.getMethod("enable", String.class).invoke(recording, PINNED_EVENT);
+        Class.forName("jdk.jfr.EventSettings").getMethod("withStackTrace").invoke(settings);
+        Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration.class).invoke(settings, threshold);
+
+        Class<?> eventType = Class.forName("jdk.jfr.consumer.RecordedEvent");
+        Method duration = eventType.getMethod("getDuration");
+        Method stackTrace = eventType.getMethod("getStackTrace");
+        Consumer<Object> handler = event -> onPinned(event, duration, stackTrace);
+        streamType.getMethod("onEvent", String.class, Consumer.class).invoke(recording, PINNED_EVENT, handler);
+        streamType.getMethod("startAsync").invoke(recording);
+        this.stream = (AutoCloseable) recording;
+        log.info("Monitoring virtual thread pinning longer than {} ms", threshold.toMillis());
+    }
+
+    @PreDestroy
+    public void stop() throws Exception {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void onPinned(Object event, Method duration, Method stackTrace) {
+        try {
+            Duration pinnedFor = (Duration) duration.invoke(event);
+            pinned.record(pinnedFor);
+            Object trace = stackTrace.invoke(event);
+            log.warn("Virtual thread pinned for {} ms at {}", pinnedFor.toMillis(), topFrames(trace));
+        } catch (ReflectiveOperationException e) {
+            log.debug("Could not read {} event", PINNED_EVENT, e);
+        }
+    }
+
+    private static String topFrames(Object trace) throws ReflectiveOperationException {
+        if (trace == null) {
+            return "unknown";
+        }
+        List<?> frames = (List<?>) trace.getClass().getMethod("getFrames").invoke(trace);
+        StringBuilder top = new StringBuilder();
+        for (int i = 0; i < Math.min(3, frames.size()); i++) {
+            Object method = frames.get(i).getClass().getMethod("getMethod").invoke(frames.get(i));
+            Object type = method.getClass().getMethod("getType").invoke(method);
+            top.append(i == 0 ? "" : " <- ")
+                    .append(type.getClass().getMethod("getName").invoke(type))
+                    .append('.')
+                    .append(method.getClass().getMethod("getName").invoke(method));
+        }
+        return top.toString();
+    }
+}
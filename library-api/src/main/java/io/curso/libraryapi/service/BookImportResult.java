@@ -0,0 +1,23 @@
+package io.curso.libraryapi.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+public class BookImportResult {
+    private final long read;
+    private final long imported;
+    private final long failed;
+    private final List<RowError> errors;
+
+    @Getter
+    @AllArgsConstructor
+    public static class RowError {
+        private final long row;
+        private final String isbn;
+        private final String message;
+    }
+}
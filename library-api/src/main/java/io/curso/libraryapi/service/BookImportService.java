@@ -0,0 +1,9 @@
+package io.curso.libraryapi.service;
+
+import io.curso.libraryapi.api.importer.BookImportRow;
+
+import java.util.Iterator;
+
+public interface BookImportService {
+    BookImportResult importBooks(Iterator<BookImportRow> rows);
+}
@@ -3,6 +3,7 @@ package io.curso.libraryapi.service;
 import io.curso.libraryapi.api.repository.Book;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
@@ -13,11 +14,31 @@ public interface BookService {
 
     Optional<Book> getById(Long id);
 
+    /**
+     * Le o livro do banco principal, sem cache nem replica; para as escritas que partem do livro atual.
+     */
+    Optional<Book> getByIdForWrite(Long id);
+
     void delete(Book book);
 
+    /**
+     * Atualiza titulo e autor do livro; devolve null se ele nao existir mais.
+     */
     Book update(Book book);
 
     Page<Book> find(Book filter, Pageable pageRequest);
 
+    Slice<Book> findAfter(Book filter, Long afterId, int size);
+
     Optional<Book> getBookByIsbn(String isbn);
+
+    /**
+     * Como {@link #getBookByIsbn}, mas lendo do banco principal, sem cache nem replica.
+     */
+    Optional<Book> getBookByIsbnForWrite(String isbn);
+
+    /**
+     * Traz para o indice de busca os livros gravados por outras instancias ou direto no banco.
+     */
+    void reloadSearchIndex();
 }
@@ -0,0 +1,15 @@
+package io.curso.libraryapi.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class LoanReturnResult {
+
+    public enum Status { RETURNED, ALREADY_RETURNED, NOT_FOUND }
+
+    private final Long loanId;
+    private final String isbn;
+    private final Status status;
+}
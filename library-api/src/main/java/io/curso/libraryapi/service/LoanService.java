@@ -5,10 +5,13 @@ import io.curso.libraryapi.api.repository.Book;
 import io.curso.libraryapi.api.repository.Loan;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Service
 public interface LoanService {
@@ -16,11 +19,38 @@ public interface LoanService {
 
     Optional<Loan> getById(Long id);
 
+    /**
+     * Le o emprestimo do banco principal, nunca da replica; para carregar antes de alterar.
+     */
+    Optional<Loan> getByIdForWrite(Long id);
+
     Loan update(Loan loan);
 
     Page<Loan> find(LoanFilterDTO filter, Pageable pageable);
 
+    Slice<Loan> findAfter(LoanFilterDTO filter, Long afterId, int size);
+
     Page<Loan> getLoansByBook(Book book, Pageable pageable);
 
+    Page<Loan> getLoansByCustomer(String customer, Pageable pageable);
+
+    List<Loan> getOpenLoansByCustomer(String customer);
+
     List<Loan> getAllLateLoans();
+
+    /**
+     * Devolve em lote os emprestimos informados por id e os emprestimos em aberto dos isbns informados.
+     */
+    List<LoanReturnResult> returnLoans(Collection<Long> loanIds, Collection<String> isbns);
+
+    void forEachLateLoansChunk(int chunkSize, Consumer<List<Loan>> chunkConsumer);
+
+    LoanStatistics getStatistics();
+
+    void reconcileStatistics();
+
+    /**
+     * Traz para o indice de emprestimos em aberto o que outras instancias ou o SQL direto abriram e devolveram.
+     */
+    void reloadOpenLoanIndex();
 }
@@ -0,0 +1,25 @@
+package io.curso.libraryapi.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SortedMap;
+
+@Getter
+@AllArgsConstructor
+public class LoanStatistics {
+
+    private final long openLoans;
+    private final long overdueLoans;
+    private final SortedMap<LocalDate, Long> loansPerDay;
+    private final List<PopularBook> mostBorrowed;
+
+    @Getter
+    @AllArgsConstructor
+    public static class PopularBook {
+        private final String isbn;
+        private final long loans;
+    }
+}
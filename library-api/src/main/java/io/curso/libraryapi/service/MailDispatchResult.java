@@ -0,0 +1,13 @@
+package io.curso.libraryapi.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+public class MailDispatchResult {
+    private final int sent;
+    private final List<String> failedRecipients;
+}
@@ -0,0 +1,22 @@
+package io.curso.libraryapi.service;
+
+import io.curso.libraryapi.api.repository.Loan;
+
+import java.util.List;
+
+public interface NotificationService {
+
+    /**
+     * Grava no outbox um aviso por emprestimo atrasado, no maximo um por emprestimo e dia.
+     *
+     * @return quantos avisos novos foram gravados
+     */
+    int enqueueLateLoans(List<Loan> lateLoans, String message);
+
+    /**
+     * Envia os avisos pendentes que ja podem ser tentados.
+     *
+     * @return quantos avisos foram enviados
+     */
+    int drainOutbox();
+}
@@ -1,34 +1,67 @@
 package io.curso.libraryapi.service;
 
-import io.curso.libraryapi.api.repository.Loan;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class ScheduleService {
 
     private static  final String CRON_LATE_LOANS = "0 0 0 1/1 * ?";
 
     private final LoanService loanService;
-    private final EmailService emailService;
+    private final BookService bookService;
+    private final NotificationService notificationService;
+    private final MeterRegistry meterRegistry;
 
     @Value("${application.mail.lateloans.message}")
     private String mensagem;
 
+    @Value("${application.lateloans.chunk-size:500}")
+    private int chunkSize;
+
+    // a varredura so grava no outbox; o envio fica com o drainOutbox
     @Scheduled(cron = "0 35 12 1/1 * ?")
+    @Timed("library.jobs")
     public void sendMailToLateLoans(){
-        List<Loan> allLateLoans = loanService.getAllLateLoans();
-//        List<String> mailsList = allLateLoans.stream().map(loan -> loan.getCustomerEmail()).collect(Collectors.toList());
-        List<String> mailsList = Arrays.asList("samuelprazeres@hotmail.com");
+        AtomicLong queued = new AtomicLong();
+        loanService.forEachLateLoansChunk(chunkSize, lateLoans -> queued.addAndGet(notificationService.enqueueLateLoans(lateLoans, mensagem)));
+        meterRegistry.counter("library.lateloans.queued").increment(queued.get());
+        log.info(" late loan notifications queued: {} ", queued.get());
+    }
+
+    @Scheduled(fixedDelayString = "${application.outbox.drain-delay-ms:10000}")
+    @Timed("library.jobs")
+    public void drainOutbox(){
+        notificationService.drainOutbox();
+    }
+
+    @Scheduled(fixedDelayString = "${application.statistics.reconcile-delay-ms:300000}",
+            initialDelayString = "${application.statistics.reconcile-delay-ms:300000}")
+    @Timed("library.jobs")
+    public void reconcileLoanStatistics(){
+        loanService.reconcileStatistics();
+    }
+
+    @Scheduled(fixedDelayString = "${application.search.reload-delay-ms:300000}",
+            initialDelayString = "${application.search.reload-delay-ms:300000}")
+    @Timed("library.jobs")
+    public void reloadSearchIndex(){
+        bookService.reloadSearchIndex();
+    }
 
-        emailService.sendMails(mensagem, mailsList);
-        System.out.println("email enviado");
+    @Scheduled(fixedDelayString = "${application.loans.index-reload-delay-ms:300000}",
+            initialDelayString = "${application.loans.index-reload-delay-ms:300000}")
+    @Timed("library.jobs")
+    public void reloadOpenLoanIndex(){
+        loanService.reloadOpenLoanIndex();
     }
 }
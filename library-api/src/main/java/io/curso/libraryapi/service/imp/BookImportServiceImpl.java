@@ -0,0 +1,148 @@
+package io.curso.libraryapi.service.imp;
+
+import io.curso.libraryapi.api.importer.BookImportRow;
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.BookRepository;
+import io.curso.libraryapi.service.BookImportResult;
+import io.curso.libraryapi.service.BookImportService;
+import io.curso.libraryapi.service.index.BookSearchIndex;
+import io.curso.libraryapi.service.index.IsbnIndex;
+import io.micrometer.core.annotation.Timed;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+@Service
+@Slf4j
+public class BookImportServiceImpl implements BookImportService {
+
+    private final BookRepository repository;
+    private final IsbnIndex isbnIndex;
+    private final BookSearchIndex searchIndex;
+    private final int chunkSize;
+    private final int maxReportedErrors;
+
+    public BookImportServiceImpl(BookRepository repository,
+                                 IsbnIndex isbnIndex,
+                                 BookSearchIndex searchIndex,
+                                 @Value("${application.import.chunk-size:500}") int chunkSize,
+                                 @Value("${application.import.max-reported-errors:1000}") int maxReportedErrors) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.repository = repository;
+        this.isbnIndex = isbnIndex;
+        this.searchIndex = searchIndex;
+        this.chunkSize = chunkSize;
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    @Override
+    @Timed("library.service")
+    public BookImportResult importBooks(Iterator<BookImportRow> rows) {
+        Progress progress = new Progress();
+        List<BookImportRow> chunk = new ArrayList<>(chunkSize);
+        while (rows.hasNext()) {
+            chunk.add(rows.next());
+            if (chunk.size() == chunkSize) {
+                importChunk(chunk, progress);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            importChunk(chunk, progress);
+        }
+        log.info(" book import finished: {} rows read, {} imported, {} failed ", progress.read, progress.imported, progress.failed);
+        return new BookImportResult(progress.read, progress.imported, progress.failed, progress.errors);
+    }
+
+    private void importChunk(List<BookImportRow> chunk, Progress progress) {
+        progress.read += chunk.size();
+
+        List<BookImportRow> accepted = new ArrayList<>(chunk.size());
+        Set<String> isbns = new HashSet<>();
+        for (BookImportRow row : chunk) {
+            Book book = row.getBook();
+            if (row.getError() != null) {
+                progress.fail(row, row.getError());
+            } else if (isBlank(book.getTitle()) || isBlank(book.getAutor()) || isBlank(book.getIsbn())) {
+                progress.fail(row, "title, autor e isbn são obrigatórios");
+            } else if (!isbns.add(book.getIsbn())) {
+                progress.fail(row, "isbn repetido no arquivo");
+            } else {
+                book.setId(null);
+                accepted.add(row);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        // uma consulta por lote em vez de um existsByIsbn por livro
+        Set<String> existing = new HashSet<>(repository.findExistingIsbns(isbns));
+        List<BookImportRow> toInsert = new ArrayList<>(accepted.size());
+        for (BookImportRow row : accepted) {
+            if (existing.contains(row.getBook().getIsbn())) {
+                progress.fail(row, "isbn já cadastrado");
+            } else {
+                toInsert.add(row);
+            }
+        }
+
+        List<Book> saved = insert(toInsert, progress);
+        saved.forEach(book -> {
+            isbnIndex.put(book.getIsbn(), book.getId());
+            searchIndex.put(book);
+        });
+        progress.imported += saved.size();
+        log.info(" book import progress: {} rows read, {} imported, {} failed ", progress.read, progress.imported, progress.failed);
+    }
+
+    private List<Book> insert(List<BookImportRow> rows, Progress progress) {
+        List<Book> books = new ArrayList<>(rows.size());
+        rows.forEach(row -> books.add(row.getBook()));
+        try {
+            return repository.saveAll(books);
+        } catch (DataIntegrityViolationException e) {
+            // isbn inserido por outra requisicao depois da verificacao: refaz o lote linha a linha
+            log.warn(" book import chunk rejected by the database, retrying row by row ");
+        }
+        List<Book> saved = new ArrayList<>(rows.size());
+        for (BookImportRow row : rows) {
+            Book book = row.getBook();
+            book.setId(null);
+            try {
+                saved.add(repository.save(book));
+            } catch (DataIntegrityViolationException e) {
+                progress.fail(row, "isbn já cadastrado");
+            }
+        }
+        return saved;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private class Progress {
+        private long read;
+        private long imported;
+        private long failed;
+        private final List<BookImportResult.RowError> errors = new ArrayList<>();
+
+        void fail(BookImportRow row, String message) {
+            failed++;
+            if (errors.size() < maxReportedErrors) {
+                String isbn = row.getBook() == null ? null : row.getBook().getIsbn();
+                errors.add(new BookImportResult.RowError(row.getRow(), isbn, message));
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.curso.libraryapi.service.imp;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Component
+public class BookLocks {
+
+    private final Lock[] stripes;
+    private final int mask;
+
+    public BookLocks(@Value("${application.loan.lock-stripes:64}") int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Lock stripes must be positive");
+        }
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new Lock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    public Lock forBook(Long bookId) {
+        return stripes[stripeOf(bookId)];
+    }
+
+    /**
+     * Locks distintos dos livros, sempre na ordem das faixas, para que operacoes em lote nao entrem em deadlock.
+     */
+    public List<Lock> forBooks(Collection<Long> bookIds) {
+        SortedSet<Integer> indexes = new TreeSet<>();
+        bookIds.forEach(bookId -> indexes.add(stripeOf(bookId)));
+        List<Lock> locks = new ArrayList<>(indexes.size());
+        indexes.forEach(index -> locks.add(stripes[index]));
+        return locks;
+    }
+
+    private int stripeOf(Long bookId) {
+        if (bookId == null) {
+            return 0;
+        }
+        int hash = Long.hashCode(bookId);
+        hash ^= (hash >>> 16);
+        return hash & mask;
+    }
+
+    public int size() {
+        return stripes.length;
+    }
+}
@@ -2,65 +2,209 @@ package io.curso.libraryapi.service.imp;
 
 import io.curso.libraryapi.api.repository.Book;
 import io.curso.libraryapi.api.repository.BookRepository;
+import io.curso.libraryapi.config.CacheConfig;
 import io.curso.libraryapi.service.BookService;
 import io.curso.libraryapi.exception.BusinessException;
+import io.curso.libraryapi.service.index.BookSearchIndex;
+import io.curso.libraryapi.service.index.IsbnIndex;
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class BookServiceImp implements BookService {
     private final BookRepository repository;
+    private final IsbnIndex isbnIndex;
+    private final BookSearchIndex searchIndex;
 
+    @EventListener(ContextRefreshedEvent.class)
+    public void warmUpIsbnIndex() {
+        repository.findAllIsbnEntries().forEach(entry -> isbnIndex.put(entry.getIsbn(), entry.getId()));
+        log.info(" isbn index loaded with {} books ", isbnIndex.size());
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void warmUpSearchIndex() {
+        searchIndex.load(searchEntries());
+        log.info(" search index loaded with {} books ", searchIndex.size());
+    }
+
+    @Override
+    @Timed("library.service")
+    public void reloadSearchIndex() {
+        // a versao e lida antes da consulta: o que este no gravar durante a leitura nao e desfeito pelo reload
+        long since = searchIndex.version();
+        searchIndex.reload(searchEntries(), since);
+        log.info(" search index reloaded with {} books ", searchIndex.size());
+    }
+
+    private List<Book> searchEntries() {
+        return repository.findAllSearchEntries().stream()
+                .map(entry -> Book.builder().id(entry.getId()).title(entry.getTitle()).autor(entry.getAutor()).isbn(entry.getIsbn()).build())
+                .collect(Collectors.toList());
+    }
 
     @Override
+    @Timed("library.service")
     public Book save(Book book) {
-        if (repository.existsByIsbn(book.getIsbn())){
+        // o índice só é confirmado no banco quando aponta duplicidade; a constraint única decide o resto
+        if (isbnIndex.contains(book.getIsbn()) && repository.existsByIsbn(book.getIsbn())){
+            throw new BusinessException("isbn já cadastrado");
+        }
+        Book saved;
+        try {
+            saved = repository.save(book);
+        } catch (DataIntegrityViolationException e) {
             throw new BusinessException("isbn já cadastrado");
         }
-        return repository.save(book);
+        if (saved != null) {
+            isbnIndex.put(saved.getIsbn(), saved.getId());
+            searchIndex.put(saved);
+        }
+        return saved;
     }
 
+    // sem readOnly: o que entra no cache vem do principal. Lido da replica logo depois de um evict, o livro atrasado
+    // ficaria no cache pelo TTL inteiro; a replica fica com as consultas que nao passam pelo cache
     @Override
+    @Timed("library.service")
+    @Cacheable(cacheNames = CacheConfig.BOOKS, key = "#id", unless = "#result == null")
+    @Transactional
     public Optional<Book> getById(Long id) {
-        return repository.findById(id);
+        return repository.findDetailsById(id);
+    }
+
+    // transacao de escrita: com a replica ligada a leitura vai para o principal e ve o que acabou de ser gravado
+    @Override
+    @Timed("library.service")
+    @Transactional
+    public Optional<Book> getByIdForWrite(Long id) {
+        return repository.findDetailsById(id);
     }
 
     @Override
+    @Timed("library.service")
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.BOOKS, key = "#book.id"),
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#book.isbn", condition = "#book.isbn != null"),
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, allEntries = true, condition = "#book.isbn == null")
+    })
     public void delete(Book book) {
         if (book == null || book.getId() == null){
             throw new IllegalArgumentException("Book id cant be null");
         }
         repository.delete(book);
+        isbnIndex.remove(book.getId());
+        searchIndex.remove(book.getId());
     }
 
+    // as instancias em cache nunca sao alteradas (o controller monta uma copia), basta remover depois da gravacao;
+    // o update nao muda o isbn, entao basta a chave dele
     @Override
+    @Timed("library.service")
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.BOOKS, key = "#book.id"),
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#book.isbn", condition = "#book.isbn != null"),
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, allEntries = true, condition = "#book.isbn == null")
+    })
     public Book update(Book book) {
         if (book == null || book.getId() == null){
             throw new IllegalArgumentException("Book id cant be null");
         }
-        return repository.save(book);
+        // UPDATE direto de titulo e autor: sem carregar e fazer merge da entidade inteira
+        if (repository.updateDetails(book.getId(), book.getTitle(), book.getAutor()) == 0) {
+            return null;
+        }
+        if (book.getIsbn() != null) {
+            searchIndex.put(book);
+        } else {
+            repository.findDetailsById(book.getId()).ifPresent(searchIndex::put);
+        }
+        return book;
     }
 
     @Override
+    @Timed("library.service")
+    @Transactional(readOnly = true)
     public Page<Book> find(Book filter, Pageable pageRequest) {
-        Example example = Example.of(filter, ExampleMatcher
+        // o indice devolve em ordem de id; ordenacoes explicitas continuam no banco
+        if (searchIndex.canServe(filter) && pageRequest.isPaged() && pageRequest.getSort().isUnsorted()) {
+            BookSearchIndex.Hits hits = searchIndex.search(filter, pageRequest.getOffset(), pageRequest.getPageSize());
+            return new PageImpl<>(findAllInOrder(hits.getIds()), pageRequest, hits.getTotal());
+        }
+        return repository.findDetails(exampleOf(filter), pageRequest);
+    }
+
+    @Override
+    @Timed("library.service")
+    @Transactional(readOnly = true)
+    public Slice<Book> findAfter(Book filter, Long afterId, int size) {
+        // um registro a mais indica se existe proxima pagina, sem precisar do count
+        List<Book> books = searchIndex.canServe(filter)
+                ? findAllInOrder(searchIndex.searchAfter(filter, afterId, size + 1))
+                : repository.findAllAfter(exampleOf(filter), afterId, size + 1);
+        boolean hasNext = books.size() > size;
+        return new SliceImpl<>(hasNext ? books.subList(0, size) : books, PageRequest.of(0, size, Sort.by("id")), hasNext);
+    }
+
+    private List<Book> findAllInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Book> byId = repository.findDetailsByIds(ids).stream()
+                .collect(Collectors.toMap(Book::getId, Function.identity()));
+        return ids.stream().map(byId::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    private Example<Book> exampleOf(Book filter) {
+        return Example.of(filter, ExampleMatcher
                 .matching()
                 .withIgnoreCase()
                 .withIgnoreNullValues()
                 .withStringMatcher(ExampleMatcher.StringMatcher.CONTAINING)
         );
-        return repository.findAll(example, pageRequest);
     }
 
     @Override
+    @Timed("library.service")
+    @Cacheable(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#isbn", unless = "#result == null")
+    @Transactional
     public Optional<Book> getBookByIsbn(String isbn) {
-        return repository.findByIsbn(isbn);
+        // carrega do principal, como o getById; o indice de isbns so serve a checagem de duplicidade do save
+        return repository.findDetailsByIsbn(isbn);
+    }
+
+    @Override
+    @Timed("library.service")
+    @Transactional
+    public Optional<Book> getBookByIsbnForWrite(String isbn) {
+        return repository.findDetailsByIsbn(isbn);
     }
 }
@@ -2,32 +2,143 @@ package io.curso.libraryapi.service.imp;
 
 
 import io.curso.libraryapi.service.EmailService;
-import lombok.RequiredArgsConstructor;
+import io.curso.libraryapi.service.MailDispatchResult;
+import io.curso.libraryapi.service.mail.TokenBucket;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Service
-@RequiredArgsConstructor
+@Slf4j
 public class EmailServiceImpl implements EmailService {
 
+    private static final String SUBJECT = "Livro com empréstimo atrasado";
+
     @Value("${application.mail.default-remetent}")
     private String remetent;
+    @Value("${application.mail.batch-size:50}")
+    private int batchSize;
+    @Value("${application.mail.max-attempts:3}")
+    private int maxAttempts;
+    @Value("${application.mail.retry-backoff-ms:500}")
+    private long retryBackoffMillis;
+
     private final JavaMailSender javaMailSender;
+    private final Executor mailExecutor;
+    private final TokenBucket mailRateLimiter;
+    private final Counter sentCounter;
+    private final Counter failedCounter;
+    private final Counter retryCounter;
+    private final Timer batchTimer;
+
+    public EmailServiceImpl(JavaMailSender javaMailSender,
+                            @Qualifier("mailExecutor") Executor mailExecutor,
+                            TokenBucket mailRateLimiter,
+                            MeterRegistry meterRegistry) {
+        this.javaMailSender = javaMailSender;
+        this.mailExecutor = mailExecutor;
+        this.mailRateLimiter = mailRateLimiter;
+        this.sentCounter = meterRegistry.counter("mail.sent");
+        this.failedCounter = meterRegistry.counter("mail.failed");
+        this.retryCounter = meterRegistry.counter("mail.retries");
+        this.batchTimer = meterRegistry.timer("mail.batch.send");
+    }
 
     @Override
-    public void sendMails(String message, List<String> mailsList) {
+    @Timed("mail.send")
+    public MailDispatchResult sendMails(String message, List<String> mailsList) {
+        List<SimpleMailMessage> messages = mailsList.stream()
+                .distinct()
+                .map(recipient -> createMessage(message, recipient))
+                .collect(Collectors.toList());
+
+        List<CompletableFuture<List<String>>> batches = new ArrayList<>();
+        for (int from = 0; from < messages.size(); from += batchSize) {
+            List<SimpleMailMessage> batch = messages.subList(from, Math.min(from + batchSize, messages.size()));
+            batches.add(CompletableFuture.supplyAsync(() -> sendBatch(batch), mailExecutor));
+        }
+
+        List<String> failedRecipients = batches.stream()
+                .map(CompletableFuture::join)
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+        return new MailDispatchResult(messages.size() - failedRecipients.size(), failedRecipients);
+    }
 
+    private SimpleMailMessage createMessage(String message, String recipient) {
         SimpleMailMessage mailMessage = new SimpleMailMessage();
         mailMessage.setFrom(remetent);
-        mailMessage.setSubject("Livro com empréstimo atrasado");
+        mailMessage.setSubject(SUBJECT);
         mailMessage.setText(message);
-        mailMessage.setTo(mailsList.toArray(new String[mailsList.size()]));
+        mailMessage.setTo(recipient);
+        return mailMessage;
+    }
+
+    private List<String> sendBatch(List<SimpleMailMessage> batch) {
+        List<SimpleMailMessage> pending = batch;
+        try {
+            for (int attempt = 1; ; attempt++) {
+                mailRateLimiter.acquire(pending.size());
+                try {
+                    send(pending);
+                    sentCounter.increment(pending.size());
+                    return Collections.emptyList();
+                } catch (MailSendException e) {
+                    List<SimpleMailMessage> failed = failedMessages(e, pending);
+                    sentCounter.increment(pending.size() - failed.size());
+                    pending = failed;
+                    if (attempt >= maxAttempts) {
+                        return giveUp(pending, e);
+                    }
+                } catch (MailException e) {
+                    if (attempt >= maxAttempts) {
+                        return giveUp(pending, e);
+                    }
+                }
+                retryCounter.increment();
+                TimeUnit.MILLISECONDS.sleep(retryBackoffMillis << (attempt - 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return giveUp(pending, e);
+        }
+    }
 
-        javaMailSender.send(mailMessage);
+    private void send(List<SimpleMailMessage> messages) {
+        batchTimer.record(() -> javaMailSender.send(messages.toArray(new SimpleMailMessage[0])));
+    }
+
+    private static List<SimpleMailMessage> failedMessages(MailSendException e, List<SimpleMailMessage> sent) {
+        if (e.getFailedMessages().isEmpty()) {
+            return sent;
+        }
+        return sent.stream()
+                .filter(e.getFailedMessages()::containsKey)
+                .collect(Collectors.toList());
+    }
 
+    private List<String> giveUp(List<SimpleMailMessage> pending, Exception e) {
+        log.error(" could not send {} mails: {} ", pending.size(), e.getMessage());
+        failedCounter.increment(pending.size());
+        return pending.stream()
+                .map(mailMessage -> mailMessage.getTo()[0])
+                .collect(Collectors.toList());
     }
 }
@@ -2,56 +2,409 @@ package io.curso.libraryapi.service.imp;
 
 import io.curso.libraryapi.api.dto.LoanFilterDTO;
 import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.config.CacheConfig;
 import io.curso.libraryapi.exception.BusinessException;
 import io.curso.libraryapi.api.repository.Loan;
 import io.curso.libraryapi.api.repository.LoanRepository;
+import io.curso.libraryapi.api.repository.LoanRepositoryCustom;
+import io.curso.libraryapi.api.repository.LoanReturnEntry;
+import io.curso.libraryapi.service.LoanReturnResult;
 import io.curso.libraryapi.service.LoanService;
+import io.curso.libraryapi.service.LoanStatistics;
+import io.curso.libraryapi.service.index.LoanCounters;
+import io.curso.libraryapi.service.index.OpenLoanIndex;
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.repository.support.PageableExecutionUtils;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class LoanServiceImpl implements LoanService {
+    private static final int LOAN_DAYS = 4;
+    private static final int IN_CLAUSE_CHUNK = 1000;
+    private static final int MOST_BORROWED_SIZE = 10;
+
     private final LoanRepository repository;
+    private final BookLocks bookLocks;
+    private final OpenLoanIndex openLoanIndex;
+    private final LoanCounters loanCounters;
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void warmUpOpenLoanIndex() {
+        openLoanIndex.load(repository.findBookIdsWithOpenLoans());
+        openLoanIndex.loadLoans(repository.findOpenLoanEntries());
+        log.info(" open loan index loaded with {} books and {} loans ", openLoanIndex.size(), openLoanIndex.loansSize());
+        reconcileStatistics();
+    }
 
     @Override
+    @Timed("library.service")
+    @CacheEvict(cacheNames = CacheConfig.OPEN_LOANS_BY_CUSTOMER, key = "#loan.customer", condition = "#loan.customer != null")
     public Loan save(Loan loan) {
-        if (repository.existsByBookAndNotReturned(loan.getBook())) {
-            throw new BusinessException("Book already loaned");
+        Long bookId = bookIdOf(loan);
+        // a verificação e o insert precisam ser commitados antes de liberar o lock do livro
+        Lock lock = bookLocks.forBook(bookId);
+        lock.lock();
+        try {
+            // o indice e so uma dica: quem decide e a uk_loan_open_book no insert. Um livro marcado no indice pode ter
+            // sido devolvido por outra instancia ou direto na tabela, entao a recusa e confirmada com uma consulta limit 1
+            if (openLoanIndex.isLoaned(bookId)) {
+                if (!repository.findOpenLoanIdsByBook(bookId, PageRequest.of(0, 1)).isEmpty()) {
+                    throw new BusinessException("Book already loaned");
+                }
+                openLoanIndex.markReturned(bookId);
+            }
+            Loan saved;
+            try {
+                saved = repository.save(loan);
+            } catch (DataIntegrityViolationException e) {
+                openLoanIndex.markLoaned(bookId);
+                throw new BusinessException("Book already loaned");
+            }
+            openLoanIndex.markLoaned(bookId);
+            openLoanIndex.addLoan(saved.getId(), saved.getLoanDate());
+            loanCounters.loanOpened(saved.getLoanDate(), isbnOf(loan));
+            return saved;
+        } finally {
+            lock.unlock();
         }
-        return repository.save(loan);
     }
 
     @Override
+    @Timed("library.service")
+    @Transactional(readOnly = true)
     public Optional<Loan> getById(Long id) {
         return repository.findById(id);
     }
 
+    // transacao de escrita: com a replica ligada a leitura vai para o principal, e o update nao grava uma copia atrasada
     @Override
+    @Timed("library.service")
+    @Transactional
+    public Optional<Loan> getByIdForWrite(Long id) {
+        return repository.findById(id);
+    }
+
+    // o update pode trocar o cliente do emprestimo, e a entrada do cliente anterior nao e conhecida aqui
+    @Override
+    @Timed("library.service")
+    @CacheEvict(cacheNames = CacheConfig.OPEN_LOANS_BY_CUSTOMER, allEntries = true)
     public Loan update(Loan loan) {
-        return repository.save(loan);
+        Long bookId = bookIdOf(loan);
+        Lock lock = bookLocks.forBook(bookId);
+        lock.lock();
+        try {
+            Loan updated = repository.save(loan);
+            if (Boolean.TRUE.equals(loan.getReturned())) {
+                openLoanIndex.markReturned(bookId);
+                LocalDate openedAt = openLoanIndex.removeLoan(loan.getId());
+                if (openedAt != null) {
+                    loanCounters.loanClosed(openedAt);
+                }
+            } else {
+                openLoanIndex.markLoaned(bookId);
+                LocalDate previous = openLoanIndex.addLoan(loan.getId(), loan.getLoanDate());
+                if (previous == null) {
+                    loanCounters.loanReopened(loan.getLoanDate());
+                } else {
+                    loanCounters.loanDateChanged(previous, loan.getLoanDate());
+                }
+            }
+            return updated;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
+    @Timed("library.service")
+    @Transactional(readOnly = true)
     public Page<Loan> find(LoanFilterDTO filter, Pageable pageable) {
-        return repository.findByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer(), pageable);
+        // so os filtros informados entram na consulta; com os dois, os ids vem de um UNION e nao de um OR
+        boolean byIsbn = StringUtils.hasText(filter.getIsbn());
+        boolean byCustomer = StringUtils.hasText(filter.getCustomer());
+        if (byIsbn && byCustomer) {
+            // o UNION pagina no banco na ordem pedida; so os emprestimos da pagina sao carregados
+            for (Sort.Order order : pageable.getSort()) {
+                if (LoanRepositoryCustom.isbnOrCustomerSortColumn(order.getProperty()) == null) {
+                    throw new BusinessException("Loans filtered by isbn and customer cannot be sorted by " + order.getProperty());
+                }
+            }
+            List<Loan> loans = findAllInOrder(repository.findIdsByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer(), pageable));
+            return PageableExecutionUtils.getPage(loans, pageable,
+                    () -> repository.countByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer()));
+        }
+        if (byIsbn) {
+            return repository.findByBookIsbn(filter.getIsbn(), pageable);
+        }
+        if (byCustomer) {
+            return repository.findByCustomer(filter.getCustomer(), pageable);
+        }
+        return Page.empty(pageable);
+    }
+
+    @Override
+    @Timed("library.service")
+    @Transactional(readOnly = true)
+    public Slice<Loan> findAfter(LoanFilterDTO filter, Long afterId, int size) {
+        // um registro a mais indica se existe proxima pagina, sem precisar do count
+        Long after = afterId == null ? 0L : afterId;
+        List<Loan> loans = loansAfter(filter, after, size + 1);
+        boolean hasNext = loans.size() > size;
+        return new SliceImpl<>(hasNext ? loans.subList(0, size) : loans, PageRequest.of(0, size, Sort.by("id")), hasNext);
+    }
+
+    private List<Loan> loansAfter(LoanFilterDTO filter, Long afterId, int limit) {
+        boolean byIsbn = StringUtils.hasText(filter.getIsbn());
+        boolean byCustomer = StringUtils.hasText(filter.getCustomer());
+        if (byIsbn && byCustomer) {
+            List<Long> ids = toLongs(repository.findIdsByBookIsbnOrCustomerAfter(filter.getIsbn(), filter.getCustomer(), afterId, limit));
+            return ids.isEmpty() ? Collections.emptyList() : repository.findWithBookByIds(ids);
+        }
+        if (byIsbn) {
+            return repository.findByBookIsbnAfter(filter.getIsbn(), afterId, PageRequest.of(0, limit));
+        }
+        if (byCustomer) {
+            return repository.findByCustomerAfter(filter.getCustomer(), afterId, PageRequest.of(0, limit));
+        }
+        return Collections.emptyList();
+    }
+
+    private List<Loan> findAllInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Loan> byId = repository.findWithBookByIds(ids).stream()
+                .collect(Collectors.toMap(Loan::getId, Function.identity()));
+        return ids.stream().map(byId::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    private static List<Long> toLongs(List<Number> ids) {
+        return ids.stream().map(Number::longValue).collect(Collectors.toList());
     }
 
     @Override
+    @Timed("library.service")
+    @Transactional(readOnly = true)
     public Page<Loan> getLoansByBook(Book book, Pageable pageable) {
         return repository.findByBook(book,pageable);
     }
 
     @Override
+    @Timed("library.service")
+    @Transactional(readOnly = true)
+    public Page<Loan> getLoansByCustomer(String customer, Pageable pageable) {
+        return repository.findByCustomer(customer, pageable);
+    }
+
+    // balcao de atendimento: "o que este cliente tem emprestado" sem passar pela consulta com OR.
+    // Sem readOnly, a carga do cache vai ao principal: da replica, um emprestimo recem devolvido voltaria ao cache
+    @Override
+    @Timed("library.service")
+    @Cacheable(cacheNames = CacheConfig.OPEN_LOANS_BY_CUSTOMER, key = "#customer")
+    @Transactional
+    public List<Loan> getOpenLoansByCustomer(String customer) {
+        return repository.findOpenByCustomer(customer);
+    }
+
+    @Override
+    @Timed("library.service")
+    @Transactional(readOnly = true)
     public List<Loan> getAllLateLoans() {
-        final Integer loanDays = 4;
-        LocalDate threeDaysAgo = LocalDate.now().minusDays(loanDays);
-        return repository.findByLoanDateLessThanAndNotReturned(threeDaysAgo);
+        if (!openLoanIndex.isLoansReady()) {
+            return repository.findByLoanDateLessThanAndNotReturned(lateLoanLimit());
+        }
+        // o indice entrega so os atrasados; o banco carrega apenas esses ids, em vez de varrer a tabela
+        List<Loan> lateLoans = new ArrayList<>();
+        openLoanIndex.forEachLoansDueBy(lateLoanLimit(), IN_CLAUSE_CHUNK, chunk -> lateLoans.addAll(repository.findOpenLoansByIds(chunk)));
+        return lateLoans;
+    }
+
+    @Override
+    @Timed("library.service")
+    @CacheEvict(cacheNames = CacheConfig.OPEN_LOANS_BY_CUSTOMER, allEntries = true)
+    public List<LoanReturnResult> returnLoans(Collection<Long> loanIds, Collection<String> isbns) {
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(loanIds == null ? Collections.emptyList() : loanIds));
+        List<String> isbnList = new ArrayList<>(new LinkedHashSet<>(isbns == null ? Collections.emptyList() : isbns));
+
+        Map<Long, LoanReturnEntry> byId = new HashMap<>();
+        chunks(ids).forEach(chunk -> repository.findReturnEntriesByIds(chunk).forEach(entry -> byId.put(entry.getId(), entry)));
+        Map<String, List<LoanReturnEntry>> byIsbn = new HashMap<>();
+        chunks(isbnList).forEach(chunk -> repository.findOpenReturnEntriesByIsbns(chunk)
+                .forEach(entry -> byIsbn.computeIfAbsent(entry.getIsbn(), isbn -> new ArrayList<>()).add(entry)));
+
+        Map<Long, LoanReturnEntry> candidates = new LinkedHashMap<>();
+        byId.values().stream().filter(entry -> !Boolean.TRUE.equals(entry.getReturned())).forEach(entry -> candidates.put(entry.getId(), entry));
+        byIsbn.values().forEach(entries -> entries.forEach(entry -> candidates.putIfAbsent(entry.getId(), entry)));
+        Set<Long> returned = candidates.isEmpty() ? Collections.emptySet() : returnOpenLoans(candidates.values());
+
+        List<LoanReturnResult> results = new ArrayList<>(ids.size() + isbnList.size());
+        for (Long id : ids) {
+            LoanReturnEntry entry = byId.get(id);
+            if (entry == null) {
+                results.add(new LoanReturnResult(id, null, LoanReturnResult.Status.NOT_FOUND));
+            } else {
+                results.add(resultOf(entry, returned));
+            }
+        }
+        for (String isbn : isbnList) {
+            List<LoanReturnEntry> entries = byIsbn.get(isbn);
+            if (entries == null) {
+                results.add(new LoanReturnResult(null, isbn, LoanReturnResult.Status.NOT_FOUND));
+            } else {
+                entries.forEach(entry -> results.add(resultOf(entry, returned)));
+            }
+        }
+        return results;
+    }
+
+    // um UPDATE por bloco de ids, com os locks dos livros para nao cruzar com um save do mesmo livro; cada bloco
+    // e uma transacao, entao o indice e os contadores acompanham cada bloco logo depois do commit dele: se um bloco
+    // falhar, os livros dos blocos anteriores ja estao liberados
+    private Set<Long> returnOpenLoans(Collection<LoanReturnEntry> entries) {
+        List<Lock> locks = bookLocks.forBooks(entries.stream().map(LoanReturnEntry::getBookId).collect(Collectors.toSet()));
+        locks.forEach(Lock::lock);
+        try {
+            Map<Long, LoanReturnEntry> byId = entries.stream().collect(Collectors.toMap(LoanReturnEntry::getId, entry -> entry));
+            List<Long> ids = new ArrayList<>(byId.keySet());
+            Set<Long> open = new HashSet<>();
+            chunks(ids).forEach(chunk -> open.addAll(repository.findOpenLoanIds(chunk)));
+            for (List<Long> chunk : chunks(new ArrayList<>(open))) {
+                repository.markReturned(chunk);
+                chunk.forEach(id -> {
+                    LoanReturnEntry entry = byId.get(id);
+                    openLoanIndex.markReturned(entry.getBookId());
+                    LocalDate openedAt = openLoanIndex.removeLoan(id);
+                    if (openedAt != null) {
+                        loanCounters.loanClosed(openedAt);
+                    }
+                });
+            }
+            return open;
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    private static LoanReturnResult resultOf(LoanReturnEntry entry, Set<Long> returned) {
+        LoanReturnResult.Status status = returned.contains(entry.getId())
+                ? LoanReturnResult.Status.RETURNED
+                : LoanReturnResult.Status.ALREADY_RETURNED;
+        return new LoanReturnResult(entry.getId(), entry.getIsbn(), status);
+    }
+
+    private static <T> List<List<T>> chunks(List<T> values) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += IN_CLAUSE_CHUNK) {
+            chunks.add(values.subList(from, Math.min(from + IN_CLAUSE_CHUNK, values.size())));
+        }
+        return chunks;
+    }
+
+    @Override
+    @Timed("library.service")
+    public void forEachLateLoansChunk(int chunkSize, Consumer<List<Loan>> chunkConsumer) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        LocalDate limit = lateLoanLimit();
+        if (openLoanIndex.isLoansReady()) {
+            // o indice e percorrido bloco a bloco: so os ids do bloco atual ficam em memoria
+            openLoanIndex.forEachLoansDueBy(limit, chunkSize, lateIds -> {
+                List<Loan> loans = repository.findOpenLoansByIds(lateIds);
+                if (!loans.isEmpty()) {
+                    chunkConsumer.accept(loans);
+                }
+            });
+            return;
+        }
+        Pageable chunk = PageRequest.of(0, chunkSize);
+        List<Loan> loans = repository.findFirstLateLoans(limit, chunk);
+        while (!loans.isEmpty()) {
+            chunkConsumer.accept(loans);
+            if (loans.size() < chunkSize) {
+                return;
+            }
+            Loan last = loans.get(loans.size() - 1);
+            loans = repository.findLateLoansAfter(limit, last.getLoanDate(), last.getId(), chunk);
+        }
+    }
+
+    private static LocalDate lateLoanLimit() {
+        return LocalDate.now().minusDays(LOAN_DAYS);
+    }
+
+    @Override
+    @Timed("library.service")
+    public LoanStatistics getStatistics() {
+        LocalDate today = LocalDate.now();
+        List<LoanStatistics.PopularBook> mostBorrowed = loanCounters.mostBorrowed(MOST_BORROWED_SIZE).stream()
+                .map(entry -> new LoanStatistics.PopularBook(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+        return new LoanStatistics(loanCounters.openLoans(), loanCounters.openLoansDueBy(lateLoanLimit()),
+                loanCounters.loansPerDay(today), mostBorrowed);
+    }
+
+    // os contadores sao incrementais; a reconciliacao corrige o que escapou (devolucoes antes do indice carregar,
+    // alteracoes direto no banco) e zera o erro acumulado do sketch de isbns
+    @Override
+    @Timed("library.service")
+    public void reconcileStatistics() {
+        loanCounters.reset(repository.countOpenLoansByDate(),
+                repository.countLoansByDateSince(loanCounters.since(LocalDate.now())),
+                repository.countLoansByIsbn(PageRequest.of(0, loanCounters.topCapacity())));
+    }
+
+    // com o indice pronto a varredura de atrasos so le os ids dele; sem o reload, emprestimos de fora nunca seriam vistos
+    @Override
+    @Timed("library.service")
+    public void reloadOpenLoanIndex() {
+        long since = openLoanIndex.version();
+        openLoanIndex.reloadLoans(repository.findOpenLoanEntries(), since);
+        log.info(" open loan index reloaded with {} loans ", openLoanIndex.loansSize());
+    }
+
+    private static Long bookIdOf(Loan loan) {
+        return loan.getBook() == null ? null : loan.getBook().getId();
+    }
+
+    private static String isbnOf(Loan loan) {
+        return loan.getBook() == null ? null : loan.getBook().getIsbn();
     }
 }
@@ -0,0 +1,192 @@
+package io.curso.libraryapi.service.imp;
+
+import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.api.repository.Notification;
+import io.curso.libraryapi.api.repository.NotificationRepository;
+import io.curso.libraryapi.service.EmailService;
+import io.curso.libraryapi.service.MailDispatchResult;
+import io.curso.libraryapi.service.NotificationService;
+import io.micrometer.core.annotation.Timed;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+@Service
+@Slf4j
+public class NotificationServiceImpl implements NotificationService {
+
+    // PENDING pronto para envio, ou SENDING de um drain que passou do prazo da reserva
+    private static final List<Notification.Status> CLAIMABLE = Arrays.asList(Notification.Status.PENDING, Notification.Status.SENDING);
+
+    private final NotificationRepository repository;
+    private final EmailService emailService;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final long leaseMillis;
+
+    public NotificationServiceImpl(NotificationRepository repository,
+                                   EmailService emailService,
+                                   @Value("${application.outbox.batch-size:200}") int batchSize,
+                                   @Value("${application.outbox.max-attempts:5}") int maxAttempts,
+                                   @Value("${application.outbox.retry-backoff-ms:60000}") long retryBackoffMillis,
+                                   @Value("${application.outbox.lease-ms:300000}") long leaseMillis) {
+        this.repository = repository;
+        this.emailService = emailService;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.leaseMillis = leaseMillis;
+    }
+
+    @Override
+    @Timed("library.service")
+    public int enqueueLateLoans(List<Loan> lateLoans, String message) {
+        LocalDate today = LocalDate.now();
+        LocalDateTime now = LocalDateTime.now();
+        List<Loan> notifiable = lateLoans.stream()
+                .filter(loan -> loan.getId() != null && loan.getCustomerEmail() != null)
+                .collect(Collectors.toList());
+        if (notifiable.isEmpty()) {
+            return 0;
+        }
+        Set<Long> loanIds = notifiable.stream().map(Loan::getId).collect(Collectors.toSet());
+        Set<Long> alreadyQueued = new HashSet<>(repository.findNotifiedLoanIds(today, loanIds));
+
+        List<Notification> notifications = notifiable.stream()
+                .filter(loan -> !alreadyQueued.contains(loan.getId()))
+                .map(loan -> Notification.builder()
+                        .loanId(loan.getId())
+                        .referenceDate(today)
+                        .recipient(loan.getCustomerEmail())
+                        .message(message)
+                        .status(Notification.Status.PENDING)
+                        .nextAttemptAt(now)
+                        .build())
+                .collect(Collectors.toList());
+        if (notifications.isEmpty()) {
+            return 0;
+        }
+        try {
+            repository.saveAll(notifications);
+            return notifications.size();
+        } catch (DataIntegrityViolationException e) {
+            // outra varredura gravou algum emprestimo do lote no mesmo dia: refaz linha a linha e pula so os repetidos
+            log.warn(" late loan notifications chunk rejected by the database, retrying row by row ");
+        }
+        int queued = 0;
+        for (Notification notification : notifications) {
+            notification.setId(null);
+            try {
+                repository.save(notification);
+                queued++;
+            } catch (DataIntegrityViolationException e) {
+                log.debug(" late loan notification for loan {} already queued ", notification.getLoanId());
+            }
+        }
+        return queued;
+    }
+
+    @Override
+    @Timed("library.service")
+    public int drainOutbox() {
+        int sent = 0;
+        List<Long> due;
+        while (!(due = repository.findDueIds(CLAIMABLE, LocalDateTime.now(), PageRequest.of(0, batchSize))).isEmpty()) {
+            List<Notification> claimed = claim(due);
+            if (!claimed.isEmpty()) {
+                sent += dispatch(claimed);
+            }
+            if (due.size() < batchSize) {
+                break;
+            }
+        }
+        if (sent > 0) {
+            log.info(" outbox drained, notifications sent: {} ", sent);
+        }
+        return sent;
+    }
+
+    // outra instancia, ou um drain anterior ainda rodando, pode ter reservado parte dos ids entre a busca e o update;
+    // so as linhas reservadas com o token deste lote sao enviadas
+    private List<Notification> claim(List<Long> ids) {
+        String token = UUID.randomUUID().toString();
+        LocalDateTime now = LocalDateTime.now();
+        int claimed = repository.claim(ids, CLAIMABLE, now, Notification.Status.SENDING, token, now.plusNanos(leaseMillis * 1_000_000));
+        if (claimed < ids.size()) {
+            log.debug(" {} due notifications already claimed by another drain ", ids.size() - claimed);
+        }
+        return claimed == 0 ? Collections.emptyList() : repository.findByClaimTokenOrderById(token);
+    }
+
+    private int dispatch(List<Notification> due) {
+        Map<String, List<Notification>> byMessage = due.stream()
+                .collect(Collectors.groupingBy(Notification::getMessage, LinkedHashMap::new, Collectors.toList()));
+        int sent = 0;
+        List<Notification> changed = new ArrayList<>(due.size());
+        for (Map.Entry<String, List<Notification>> entry : byMessage.entrySet()) {
+            List<String> recipients = entry.getValue().stream()
+                    .map(Notification::getRecipient)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+            Set<String> failed;
+            String error = null;
+            try {
+                MailDispatchResult result = emailService.sendMails(entry.getKey(), recipients);
+                failed = new HashSet<>(result.getFailedRecipients());
+                if (!failed.isEmpty()) {
+                    error = "mail server rejected the recipient";
+                }
+            } catch (RuntimeException e) {
+                failed = new HashSet<>(recipients);
+                error = truncate(e.getMessage());
+            }
+            LocalDateTime now = LocalDateTime.now();
+            for (Notification notification : entry.getValue()) {
+                if (failed.contains(notification.getRecipient())) {
+                    retryLater(notification, error, now);
+                } else {
+                    notification.setStatus(Notification.Status.SENT);
+                    notification.setSentAt(now);
+                    sent++;
+                }
+                changed.add(notification);
+            }
+        }
+        repository.saveAll(changed);
+        return sent;
+    }
+
+    private static String truncate(String error) {
+        return error == null || error.length() <= 255 ? error : error.substring(0, 255);
+    }
+
+    private void retryLater(Notification notification, String error, LocalDateTime now) {
+        int attempts = notification.getAttempts() + 1;
+        notification.setAttempts(attempts);
+        notification.setLastError(error);
+        if (attempts >= maxAttempts) {
+            notification.setStatus(Notification.Status.FAILED);
+            log.error(" giving up notification {} for loan {} after {} attempts ", notification.getId(), notification.getLoanId(), attempts);
+        } else {
+            notification.setStatus(Notification.Status.PENDING);
+            notification.setNextAttemptAt(now.plusNanos((retryBackoffMillis << (attempts - 1)) * 1_000_000));
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package io.curso.libraryapi.service.index;
+
+import io.curso.libraryapi.api.repository.Book;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Indice invertido de trigramas sobre titulo, autor e isbn, com a mesma semantica do
+ * Example CONTAINING + ignoreCase: os trigramas so reduzem os candidatos, o "contains" confirma.
+ * Os resultados saem em ordem de id.
+ * <p>
+ * O indice so ve as gravacoes feitas por esta instancia; o que outra instancia ou o SQL direto alterar
+ * aparece no proximo {@link #reload}, agendado pelo ScheduleService.
+ */
+@Component
+public class BookSearchIndex {
+
+    private static final int GRAM = 3;
+    private static final char[] FIELD_KEYS = {'t', 'a', 'i'};
+
+    private final ConcurrentMap<Long, String[]> documents = new ConcurrentHashMap<>();
+    private final NavigableSet<Long> ids = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<String, Posting> postings = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    // id -> versao da ultima alteracao local, ate o reload seguinte; alterado apenas nos metodos synchronized
+    private final Map<Long, Long> localChanges = new HashMap<>();
+    private long version;
+
+    /**
+     * Enquanto o indice nao foi carregado as buscas devem ir ao banco.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Sem filtro de texto o banco ja pagina pela chave primaria, e o indice nao ajuda.
+     */
+    public boolean canServe(Book filter) {
+        return ready && !isEmpty(terms(filter));
+    }
+
+    public synchronized void load(Iterable<Book> books) {
+        books.forEach(this::index);
+        ready = true;
+    }
+
+    /**
+     * Versao das alteracoes locais; deve ser lida antes da leitura do banco passada ao {@link #reload}.
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Sincroniza o indice com uma leitura completa do banco feita depois de {@code since}. Livros alterados
+     * por esta instancia depois de {@code since} ficam como estao: a leitura pode nao ter visto a alteracao.
+     */
+    public synchronized void reload(Iterable<Book> books, long since) {
+        Set<Long> seen = new HashSet<>();
+        for (Book book : books) {
+            if (book == null || book.getId() == null) {
+                continue;
+            }
+            seen.add(book.getId());
+            if (!changedAfter(book.getId(), since) && !Arrays.equals(documents.get(book.getId()), fieldsOf(book))) {
+                index(book);
+            }
+        }
+        for (Long id : new ArrayList<>(documents.keySet())) {
+            if (!seen.contains(id) && !changedAfter(id, since)) {
+                unindex(id);
+            }
+        }
+        localChanges.values().removeIf(changed -> changed <= since);
+        ready = true;
+    }
+
+    public synchronized void put(Book book) {
+        if (book == null || book.getId() == null) {
+            return;
+        }
+        index(book);
+        localChanges.put(book.getId(), ++version);
+    }
+
+    public synchronized void remove(Long id) {
+        if (id == null) {
+            return;
+        }
+        unindex(id);
+        localChanges.put(id, ++version);
+    }
+
+    private boolean changedAfter(Long id, long since) {
+        Long changed = localChanges.get(id);
+        return changed != null && changed > since;
+    }
+
+    private void index(Book book) {
+        unindex(book.getId());
+        String[] fields = fieldsOf(book);
+        for (int field = 0; field < fields.length; field++) {
+            for (String gram : grams(field, fields[field])) {
+                postings.computeIfAbsent(gram, key -> new Posting()).add(book.getId());
+            }
+        }
+        documents.put(book.getId(), fields);
+        ids.add(book.getId());
+    }
+
+    private void unindex(Long id) {
+        String[] fields = documents.remove(id);
+        if (fields == null) {
+            return;
+        }
+        ids.remove(id);
+        for (int field = 0; field < fields.length; field++) {
+            for (String gram : grams(field, fields[field])) {
+                Posting posting = postings.get(gram);
+                if (posting != null && posting.remove(id) == 0) {
+                    postings.remove(gram, posting);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pagina por offset: conta todos os resultados e devolve os ids da janela pedida.
+     */
+    public Hits search(Book filter, long offset, int limit) {
+        List<Long> page = new ArrayList<>(limit);
+        String[] terms = terms(filter);
+        if (filter.getId() == null && isEmpty(terms)) {
+            // sem filtro nao ha o que verificar: a contagem e o tamanho do indice
+            ids.stream().skip(offset).limit(limit).forEach(page::add);
+            return new Hits(documents.size(), page);
+        }
+        long total = 0;
+        for (Long id : candidates(filter, terms, null)) {
+            if (matches(id, terms)) {
+                if (total >= offset && page.size() < limit) {
+                    page.add(id);
+                }
+                total++;
+            }
+        }
+        return new Hits(total, page);
+    }
+
+    /**
+     * Pagina por cursor: ate {@code limit} ids maiores que {@code afterId}, sem contagem.
+     */
+    public List<Long> searchAfter(Book filter, Long afterId, int limit) {
+        List<Long> page = new ArrayList<>(limit);
+        String[] terms = terms(filter);
+        for (Long id : candidates(filter, terms, afterId)) {
+            if (page.size() >= limit) {
+                break;
+            }
+            if (matches(id, terms)) {
+                page.add(id);
+            }
+        }
+        return page;
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    private NavigableSet<Long> candidates(Book filter, String[] terms, Long afterId) {
+        if (filter.getId() != null) {
+            NavigableSet<Long> byId = documents.containsKey(filter.getId())
+                    ? new TreeSet<>(Collections.singleton(filter.getId()))
+                    : Collections.emptyNavigableSet();
+            return afterId == null ? byId : byId.tailSet(afterId, false);
+        }
+        NavigableSet<Long> smallest = ids;
+        int smallestSize = documents.size();
+        for (int field = 0; field < terms.length; field++) {
+            for (String gram : grams(field, terms[field])) {
+                Posting posting = postings.get(gram);
+                if (posting == null) {
+                    return Collections.emptyNavigableSet();
+                }
+                // o size do ConcurrentSkipListSet percorre a lista inteira, por isso o contador proprio
+                if (posting.size < smallestSize) {
+                    smallest = posting.ids;
+                    smallestSize = posting.size;
+                }
+            }
+        }
+        return afterId == null ? smallest : smallest.tailSet(afterId, false);
+    }
+
+    private boolean matches(Long id, String[] terms) {
+        String[] fields = documents.get(id);
+        if (fields == null) {
+            return false;
+        }
+        for (int field = 0; field < terms.length; field++) {
+            if (terms[field] != null && (fields[field] == null || !fields[field].contains(terms[field]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(String[] terms) {
+        for (String term : terms) {
+            if (term != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] fieldsOf(Book book) {
+        return new String[]{normalize(book.getTitle()), normalize(book.getAutor()), normalize(book.getIsbn())};
+    }
+
+    private static String[] terms(Book filter) {
+        return new String[]{normalize(filter.getTitle()), normalize(filter.getAutor()), normalize(filter.getIsbn())};
+    }
+
+    private static Set<String> grams(int field, String value) {
+        if (value == null || value.length() < GRAM) {
+            return Collections.emptySet();
+        }
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= value.length(); i++) {
+            grams.add(FIELD_KEYS[field] + value.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    private static String normalize(String value) {
+        return value == null ? null : value.toLowerCase(Locale.ROOT);
+    }
+
+    // alterado apenas dentro dos metodos synchronized do indice
+    private static class Posting {
+        private final NavigableSet<Long> ids = new ConcurrentSkipListSet<>();
+        private volatile int size;
+
+        void add(Long id) {
+            if (ids.add(id)) {
+                size++;
+            }
+        }
+
+        int remove(Long id) {
+            if (ids.remove(id)) {
+                size--;
+            }
+            return size;
+        }
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class Hits {
+        private final long total;
+        private final List<Long> ids;
+    }
+}
@@ -0,0 +1,50 @@
+package io.curso.libraryapi.service.index;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@Component
+public class IsbnIndex {
+
+    private final ConcurrentMap<String, Long> idsByIsbn = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, String> isbnsById = new ConcurrentHashMap<>();
+
+    public boolean contains(String isbn) {
+        return isbn != null && idsByIsbn.containsKey(isbn);
+    }
+
+    public Optional<Long> getId(String isbn) {
+        if (isbn == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(idsByIsbn.get(isbn));
+    }
+
+    public synchronized void put(String isbn, Long id) {
+        if (isbn == null || id == null) {
+            return;
+        }
+        String previous = isbnsById.put(id, isbn);
+        if (previous != null && !previous.equals(isbn)) {
+            idsByIsbn.remove(previous, id);
+        }
+        idsByIsbn.put(isbn, id);
+    }
+
+    public synchronized void remove(Long id) {
+        if (id == null) {
+            return;
+        }
+        String isbn = isbnsById.remove(id);
+        if (isbn != null) {
+            idsByIsbn.remove(isbn, id);
+        }
+    }
+
+    public int size() {
+        return idsByIsbn.size();
+    }
+}
@@ -0,0 +1,136 @@
+package io.curso.libraryapi.service.index;
+
+import io.curso.libraryapi.api.repository.IsbnCount;
+import io.curso.libraryapi.api.repository.LoanDateCount;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Agregados dos emprestimos mantidos a cada save/devolucao: em aberto, em aberto por data (os atrasados sao a soma
+ * das datas ate o limite, custo pelo numero de dias e nao de emprestimos), emprestimos por dia e isbns mais
+ * emprestados. A reconciliacao com o banco troca tudo de uma vez; incrementos feitos durante ela podem se perder
+ * ate a proxima.
+ */
+@Component
+public class LoanCounters {
+
+    private final int days;
+    private final int topCapacity;
+    private volatile Counters counters;
+
+    public LoanCounters(@Value("${application.statistics.days:30}") int days,
+                        @Value("${application.statistics.top-capacity:100}") int topCapacity) {
+        this.days = days;
+        this.topCapacity = topCapacity;
+        this.counters = new Counters(topCapacity);
+    }
+
+    public void loanOpened(LocalDate loanDate, String isbn) {
+        Counters current = counters;
+        loanReopened(loanDate);
+        if (loanDate != null) {
+            current.loansPerDay.computeIfAbsent(loanDate, date -> new LongAdder()).increment();
+        }
+        if (isbn != null) {
+            current.popularIsbns.offer(isbn);
+        }
+    }
+
+    public void loanReopened(LocalDate loanDate) {
+        Counters current = counters;
+        current.openLoans.increment();
+        if (loanDate != null) {
+            current.openLoansByDate.computeIfAbsent(loanDate, date -> new LongAdder()).increment();
+        }
+    }
+
+    public void loanClosed(LocalDate loanDate) {
+        Counters current = counters;
+        current.openLoans.decrement();
+        if (loanDate != null) {
+            current.openLoansByDate.computeIfAbsent(loanDate, date -> new LongAdder()).decrement();
+        }
+    }
+
+    public void loanDateChanged(LocalDate from, LocalDate to) {
+        if (from == null || from.equals(to)) {
+            return;
+        }
+        loanClosed(from);
+        loanReopened(to);
+    }
+
+    public void reset(Collection<LoanDateCount> openLoansByDate, Collection<LoanDateCount> loansPerDay, Collection<IsbnCount> isbns) {
+        Counters fresh = new Counters(topCapacity);
+        openLoansByDate.forEach(count -> {
+            fresh.openLoans.add(count.getTotal());
+            fresh.openLoansByDate.computeIfAbsent(count.getLoanDate(), date -> new LongAdder()).add(count.getTotal());
+        });
+        loansPerDay.forEach(count -> fresh.loansPerDay.computeIfAbsent(count.getLoanDate(), date -> new LongAdder()).add(count.getTotal()));
+        Map<String, Long> exact = new HashMap<>();
+        isbns.forEach(count -> exact.put(count.getIsbn(), count.getTotal()));
+        fresh.popularIsbns.reset(exact);
+        counters = fresh;
+    }
+
+    public long openLoans() {
+        return counters.openLoans.sum();
+    }
+
+    public long openLoansDueBy(LocalDate limit) {
+        long total = 0;
+        for (LongAdder count : counters.openLoansByDate.headMap(limit, true).values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Emprestimos feitos em cada um dos ultimos {@code days} dias ate {@code today}, em ordem de data.
+     */
+    public SortedMap<LocalDate, Long> loansPerDay(LocalDate today) {
+        SortedMap<LocalDate, Long> result = new TreeMap<>();
+        LocalDate since = since(today);
+        counters.loansPerDay.forEach((date, count) -> {
+            if (!date.isBefore(since) && !date.isAfter(today)) {
+                result.put(date, count.sum());
+            }
+        });
+        return result;
+    }
+
+    public List<Map.Entry<String, Long>> mostBorrowed(int size) {
+        return counters.popularIsbns.top(size);
+    }
+
+    public LocalDate since(LocalDate today) {
+        return today.minusDays(days - 1);
+    }
+
+    public int topCapacity() {
+        return topCapacity;
+    }
+
+    private static final class Counters {
+        private final LongAdder openLoans = new LongAdder();
+        private final NavigableMap<LocalDate, LongAdder> openLoansByDate = new ConcurrentSkipListMap<>();
+        private final Map<LocalDate, LongAdder> loansPerDay = new ConcurrentHashMap<>();
+        private final SpaceSavingSketch popularIsbns;
+
+        private Counters(int topCapacity) {
+            this.popularIsbns = new SpaceSavingSketch(topCapacity);
+        }
+    }
+}
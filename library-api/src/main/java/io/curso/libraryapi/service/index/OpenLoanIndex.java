@@ -0,0 +1,206 @@
+package io.curso.libraryapi.service.index;
+
+import io.curso.libraryapi.api.repository.OpenLoanEntry;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+
+@Component
+public class OpenLoanIndex {
+
+    private final Set<Long> loanedBooks = ConcurrentHashMap.newKeySet();
+
+    // emprestimos em aberto ordenados por (data, id): os atrasados sao sempre um prefixo do conjunto,
+    // entao a passagem do tempo nao exige mover nada, so muda o limite da consulta
+    private final NavigableSet<LoanKey> openLoans = new ConcurrentSkipListSet<>();
+    private final Map<Long, LocalDate> loanDates = new ConcurrentHashMap<>();
+    private volatile boolean loansReady;
+
+    // emprestimo -> versao da ultima alteracao local, ate o reloadLoans seguinte; alterado apenas nos metodos synchronized
+    private final Map<Long, Long> localChanges = new HashMap<>();
+    private long version;
+
+    public boolean isLoaned(Long bookId) {
+        return bookId != null && loanedBooks.contains(bookId);
+    }
+
+    public void markLoaned(Long bookId) {
+        if (bookId != null) {
+            loanedBooks.add(bookId);
+        }
+    }
+
+    public void markReturned(Long bookId) {
+        if (bookId != null) {
+            loanedBooks.remove(bookId);
+        }
+    }
+
+    public void load(Collection<Long> bookIds) {
+        bookIds.forEach(this::markLoaned);
+    }
+
+    public int size() {
+        return loanedBooks.size();
+    }
+
+    public boolean isLoansReady() {
+        return loansReady;
+    }
+
+    /**
+     * @return a data anterior do emprestimo, ou null se ele nao estava em aberto no indice
+     */
+    public synchronized LocalDate addLoan(Long loanId, LocalDate loanDate) {
+        if (loanId == null || loanDate == null) {
+            return null;
+        }
+        localChanges.put(loanId, ++version);
+        return putLoan(loanId, loanDate);
+    }
+
+    /**
+     * @return a data do emprestimo retirado, ou null se ele nao estava em aberto no indice
+     */
+    public synchronized LocalDate removeLoan(Long loanId) {
+        if (loanId == null) {
+            return null;
+        }
+        localChanges.put(loanId, ++version);
+        return dropLoan(loanId);
+    }
+
+    public synchronized void loadLoans(Collection<OpenLoanEntry> entries) {
+        entries.forEach(entry -> {
+            if (entry.getId() != null && entry.getLoanDate() != null) {
+                putLoan(entry.getId(), entry.getLoanDate());
+            }
+        });
+        loansReady = true;
+    }
+
+    /**
+     * Versao das alteracoes locais; deve ser lida antes da leitura do banco passada ao {@link #reloadLoans}.
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Sincroniza os emprestimos em aberto com uma leitura completa do banco feita depois de {@code since}: entram os
+     * abertos por outra instancia ou por SQL, saem os devolvidos fora daqui. Emprestimos alterados por esta instancia
+     * depois de {@code since} ficam como estao, porque a leitura pode nao ter visto a alteracao.
+     */
+    public synchronized void reloadLoans(Collection<OpenLoanEntry> entries, long since) {
+        Set<Long> seen = new HashSet<>();
+        for (OpenLoanEntry entry : entries) {
+            if (entry.getId() == null || entry.getLoanDate() == null) {
+                continue;
+            }
+            seen.add(entry.getId());
+            if (!changedAfter(entry.getId(), since) && !entry.getLoanDate().equals(loanDates.get(entry.getId()))) {
+                putLoan(entry.getId(), entry.getLoanDate());
+            }
+        }
+        for (Long loanId : new ArrayList<>(loanDates.keySet())) {
+            if (!seen.contains(loanId) && !changedAfter(loanId, since)) {
+                dropLoan(loanId);
+            }
+        }
+        localChanges.values().removeIf(changed -> changed <= since);
+        loansReady = true;
+    }
+
+    /**
+     * Ids dos emprestimos em aberto com data ate {@code limit}, na ordem (data, id); custo proporcional ao resultado.
+     */
+    public List<Long> loansDueBy(LocalDate limit) {
+        List<Long> ids = new ArrayList<>();
+        for (LoanKey key : openLoans.headSet(new LoanKey(limit, Long.MAX_VALUE), true)) {
+            ids.add(key.loanId);
+        }
+        return ids;
+    }
+
+    /**
+     * Entrega os mesmos ids de {@link #loansDueBy} em blocos de ate {@code chunkSize}, percorrendo o conjunto aos poucos:
+     * a memoria fica no tamanho do bloco, nao do resultado. Emprestimos incluidos ou retirados durante a passagem
+     * podem ou nao aparecer, como em qualquer iteracao do ConcurrentSkipListSet.
+     */
+    public void forEachLoansDueBy(LocalDate limit, int chunkSize, Consumer<List<Long>> chunkConsumer) {
+        List<Long> chunk = new ArrayList<>(chunkSize);
+        for (LoanKey key : openLoans.headSet(new LoanKey(limit, Long.MAX_VALUE), true)) {
+            chunk.add(key.loanId);
+            if (chunk.size() == chunkSize) {
+                chunkConsumer.accept(chunk);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunkConsumer.accept(chunk);
+        }
+    }
+
+    public int loansSize() {
+        return loanDates.size();
+    }
+
+    private LocalDate putLoan(Long loanId, LocalDate loanDate) {
+        LocalDate previous = loanDates.put(loanId, loanDate);
+        if (previous != null) {
+            openLoans.remove(new LoanKey(previous, loanId));
+        }
+        openLoans.add(new LoanKey(loanDate, loanId));
+        return previous;
+    }
+
+    private LocalDate dropLoan(Long loanId) {
+        LocalDate previous = loanDates.remove(loanId);
+        if (previous != null) {
+            openLoans.remove(new LoanKey(previous, loanId));
+        }
+        return previous;
+    }
+
+    private boolean changedAfter(Long loanId, long since) {
+        Long changed = localChanges.get(loanId);
+        return changed != null && changed > since;
+    }
+
+    private static final class LoanKey implements Comparable<LoanKey> {
+        private final LocalDate loanDate;
+        private final long loanId;
+
+        private LoanKey(LocalDate loanDate, long loanId) {
+            this.loanDate = loanDate;
+            this.loanId = loanId;
+        }
+
+        @Override
+        public int compareTo(LoanKey other) {
+            int byDate = loanDate.compareTo(other.loanDate);
+            return byDate != 0 ? byDate : Long.compare(loanId, other.loanId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LoanKey && compareTo((LoanKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * loanDate.hashCode() + Long.hashCode(loanId);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.curso.libraryapi.service.index;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Heavy hitters pelo algoritmo Space-Saving: guarda no maximo {@code capacity} chaves e, quando uma chave nova
+ * chega com o sketch cheio, ela herda a contagem da menor (que sai). Uma contagem superestima o valor real em
+ * no maximo o que foi herdado, e toda chave com frequencia acima de total / capacity esta no sketch.
+ */
+final class SpaceSavingSketch {
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+
+    SpaceSavingSketch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    synchronized void offer(String key) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count++;
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(key, new Counter(key, 1));
+            return;
+        }
+        // O(capacity) so quando a chave e nova e o sketch esta cheio; capacity fica na casa das centenas
+        Counter min = counters.values().stream().min(Comparator.comparingLong(c -> c.count)).get();
+        counters.remove(min.key);
+        counters.put(key, new Counter(key, min.count + 1));
+    }
+
+    /**
+     * Contagens exatas vindas do banco: o sketch recomeca a partir delas, sem erro acumulado.
+     */
+    synchronized void reset(Map<String, Long> exactCounts) {
+        counters.clear();
+        exactCounts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(capacity)
+                .forEach(entry -> counters.put(entry.getKey(), new Counter(entry.getKey(), entry.getValue())));
+    }
+
+    synchronized List<Map.Entry<String, Long>> top(int size) {
+        List<Counter> sorted = new ArrayList<>(counters.values());
+        sorted.sort(Comparator.comparingLong((Counter c) -> c.count).reversed().thenComparing(c -> c.key));
+        return sorted.stream()
+                .limit(size)
+                .map(c -> new AbstractMap.SimpleImmutableEntry<>(c.key, c.count))
+                .collect(Collectors.toList());
+    }
+
+    private static final class Counter {
+        private final String key;
+        private long count;
+
+        private Counter(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+}
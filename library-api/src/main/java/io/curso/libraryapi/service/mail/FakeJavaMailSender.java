@@ -0,0 +1,112 @@
+package io.curso.libraryapi.service.mail;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessagePreparator;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Slf4j
+public class FakeJavaMailSender implements JavaMailSender {
+
+    private final long latencyMillis;
+    private final AtomicLong sendCalls = new AtomicLong();
+    private final Queue<SimpleMailMessage> sentMessages = new ConcurrentLinkedQueue<>();
+
+    public FakeJavaMailSender(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public void send(SimpleMailMessage simpleMessage) throws MailException {
+        send(new SimpleMailMessage[]{simpleMessage});
+    }
+
+    @Override
+    public void send(SimpleMailMessage... simpleMessages) throws MailException {
+        simulateLatency();
+        sendCalls.incrementAndGet();
+        sentMessages.addAll(Arrays.asList(simpleMessages));
+        log.debug(" fake mail sender accepted {} messages ", simpleMessages.length);
+    }
+
+    @Override
+    public MimeMessage createMimeMessage() {
+        return new MimeMessage(Session.getInstance(new Properties()));
+    }
+
+    @Override
+    public MimeMessage createMimeMessage(InputStream contentStream) throws MailException {
+        try {
+            return new MimeMessage(Session.getInstance(new Properties()), contentStream);
+        } catch (Exception e) {
+            throw new MailPreparationException("Could not parse MIME message", e);
+        }
+    }
+
+    @Override
+    public void send(MimeMessage mimeMessage) throws MailException {
+        send(new MimeMessage[]{mimeMessage});
+    }
+
+    @Override
+    public void send(MimeMessage... mimeMessages) throws MailException {
+        simulateLatency();
+        sendCalls.incrementAndGet();
+    }
+
+    @Override
+    public void send(MimeMessagePreparator mimeMessagePreparator) throws MailException {
+        send(new MimeMessagePreparator[]{mimeMessagePreparator});
+    }
+
+    @Override
+    public void send(MimeMessagePreparator... mimeMessagePreparators) throws MailException {
+        for (MimeMessagePreparator preparator : mimeMessagePreparators) {
+            try {
+                preparator.prepare(createMimeMessage());
+            } catch (Exception e) {
+                throw new MailPreparationException(e);
+            }
+        }
+        simulateLatency();
+        sendCalls.incrementAndGet();
+    }
+
+    public long getSendCalls() {
+        return sendCalls.get();
+    }
+
+    public List<SimpleMailMessage> getSentMessages() {
+        return new ArrayList<>(sentMessages);
+    }
+
+    public void clear() {
+        sendCalls.set(0);
+        sentMessages.clear();
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.curso.libraryapi.service.mail;
+
+import java.util.concurrent.TimeUnit;
+
+public class TokenBucket {
+
+    private final double permitsPerSecond;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double permitsPerSecond, double capacity) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(capacity, 1);
+        this.tokens = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public void acquire(int permits) throws InterruptedException {
+        long waitNanos = reserve(permits);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    // reserva as permissões e devolve quanto tempo o chamador precisa esperar para usá-las
+    synchronized long reserve(int permits) {
+        if (permitsPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+        tokens -= permits;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -3,7 +3,16 @@ package io.curso.libraryapi.model.repository;
 
 import io.curso.libraryapi.api.repository.Book;
 import io.curso.libraryapi.api.repository.BookRepository;
+import io.curso.libraryapi.api.repository.Loan;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Assertions;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -13,8 +22,14 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
 @DataJpaTest
@@ -88,4 +103,128 @@ public class BookRepositoryTest {
 
         org.assertj.core.api.Assertions.assertThat(deleteBook).isNull();
     }
+
+    @Test
+    @DisplayName("Deve buscar livros por exemplo a partir do ultimo id informado")
+    public void findAllAfterTest(){
+        Book first = createNewBook("001");
+        Book second = createNewBook("002");
+        Book third = createNewBook("003");
+        Book other = Book.builder().title("Outro").autor("Ciclano").isbn("004").build();
+        entityManager.persist(first);
+        entityManager.persist(second);
+        entityManager.persist(third);
+        entityManager.persist(other);
+
+        Example<Book> example = Example.of(Book.builder().title("aventuras").build(), ExampleMatcher.matching()
+                .withIgnoreCase().withIgnoreNullValues().withStringMatcher(ExampleMatcher.StringMatcher.CONTAINING));
+
+        List<Book> result = repository.findAllAfter(example, first.getId(), 10);
+
+        assertThat(result).containsExactly(second, third);
+        assertThat(repository.findAllAfter(example, null, 2)).containsExactly(first, second);
+    }
+
+    @Test
+    @DisplayName("Deve retornar os isbns ja cadastrados de um lote")
+    public void findExistingIsbnsTest(){
+        entityManager.persist(createNewBook("001"));
+        entityManager.persist(createNewBook("003"));
+
+        List<String> existing = repository.findExistingIsbns(Arrays.asList("001", "002", "003"));
+
+        assertThat(existing).containsExactlyInAnyOrder("001", "003");
+    }
+
+    @Test
+    @DisplayName("Deve ler os detalhes do livro em uma consulta, sem entidade gerenciada e sem os emprestimos")
+    public void findDetailsWithoutLoansTest(){
+        Book book = persistBookWithLoans("123", 3);
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        Book details = repository.findDetailsById(book.getId()).get();
+
+        assertThat(details).isEqualTo(Book.builder().id(book.getId()).isbn("123").autor("Fulano").title("As aventuras").build());
+        assertThat(details.getLoans()).isNull();
+        assertThat(entityManager.getEntityManager().contains(details)).isFalse();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+        statistics.clear();
+        Example<Book> example = Example.of(Book.builder().title("aventuras").build(), ExampleMatcher.matching()
+                .withIgnoreCase().withIgnoreNullValues().withStringMatcher(ExampleMatcher.StringMatcher.CONTAINING));
+        Page<Book> page = repository.findDetails(example, PageRequest.of(0, 1, Sort.by("title")));
+
+        assertThat(page.getContent()).containsExactly(details);
+        assertThat(page.getTotalElements()).isEqualTo(1);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+        assertThat(statistics.getCollectionLoadCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve atualizar titulo e autor com um unico UPDATE")
+    public void updateDetailsTest(){
+        Book book = persistBookWithLoans("123", 3);
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        int updated = repository.updateDetails(book.getId(), "Outro titulo", "Ciclano");
+
+        assertThat(updated).isEqualTo(1);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+        assertThat(repository.findDetailsById(book.getId()).get())
+                .extracting(Book::getTitle, Book::getAutor, Book::getIsbn)
+                .containsExactly("Outro titulo", "Ciclano", "123");
+        assertThat(repository.updateDetails(-1L, "Outro titulo", "Ciclano")).isZero();
+    }
+
+    @Test
+    @DisplayName("Nao deve carregar os emprestimos ao comparar ou imprimir um livro")
+    public void equalsAndToStringWithoutLoansTest(){
+        Book book = persistBookWithLoans("123", 3);
+        Book managed = entityManager.find(Book.class, book.getId());
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        String text = managed.toString();
+        boolean equal = managed.equals(Book.builder().id(book.getId()).isbn("123").autor("Fulano").title("As aventuras").build());
+        managed.hashCode();
+
+        assertThat(text).doesNotContain("loans");
+        assertThat(equal).isTrue();
+        assertThat(Hibernate.isInitialized(managed.getLoans())).isFalse();
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+    }
+
+    private Book persistBookWithLoans(String isbn, int loans){
+        Book book = entityManager.persist(createNewBook(isbn));
+        for (int i = 0; i < loans; i++) {
+            entityManager.persist(Loan.builder().book(book).customer("Fulano " + i).loanDate(LocalDate.now()).returned(i > 0).build());
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return book;
+    }
+
+    private Statistics statistics(){
+        return entityManager.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    @DisplayName("Deve inserir livros em lotes do JDBC")
+    public void saveAllInBatchesTest(){
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            books.add(createNewBook("isbn-" + i));
+        }
+        repository.saveAll(books);
+        entityManager.flush();
+
+        assertThat(repository.count()).isEqualTo(120);
+        assertThat(statistics.getPrepareStatementCount()).isLessThan(20);
+    }
 }
@@ -1,8 +1,14 @@
 package io.curso.libraryapi.model.repository;
 
 import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.IsbnCount;
 import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.api.repository.LoanDateCount;
 import io.curso.libraryapi.api.repository.LoanRepository;
+import io.curso.libraryapi.api.repository.LoanReturnEntry;
+import io.curso.libraryapi.api.repository.OpenLoanEntry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -10,24 +16,28 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
-import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import javax.persistence.PersistenceException;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static io.curso.libraryapi.model.repository.BookRepositoryTest.createNewBook;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
 @DataJpaTest
 public class LoanRepositoryTest {
 
-    @MockBean
+    @Autowired
     private LoanRepository repository;
     @Autowired
     private TestEntityManager entityManager;
@@ -47,15 +57,36 @@ public class LoanRepositoryTest {
     @DisplayName("Deve buscar empréstimo pelo isbn do livro ou customer")
     public void findByBookIsbnOrCustomerTest(){
         Loan loan = createAndPersistLoan(LocalDate.now());
+        entityManager.persist(Loan.builder().book(createAndPersistBook("456")).customer("Ciclano").loanDate(LocalDate.now()).build());
+
+        List<Long> ids = repository.findIdsByBookIsbnOrCustomer("123", "Fulano", PageRequest.of(0, 10));
+        List<Loan> result = repository.findWithBookByIds(ids);
 
-        Page<Loan> result = repository.findByBookIsbnOrCustomer(
-                "123", "Fulano", PageRequest.of(0, 10));
+        assertThat(ids).hasSize(1);
 
-        assertThat(result.getContent()).hasSize(1);
-        assertThat(result.getContent()).contains(loan);
-        assertThat(result.getPageable().getPageSize()).isEqualTo(10);
-        assertThat(result.getPageable().getPageNumber()).isEqualTo(0);
-        assertThat(result.getTotalElements()).isEqualTo(1);
+        assertThat(result).hasSize(1);
+        assertThat(result).contains(loan);
+        assertThat(repository.countByBookIsbnOrCustomer("123", "Fulano")).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve ordenar no banco a pagina de emprestimos por isbn ou customer pela ordenacao pedida")
+    public void findByBookIsbnOrCustomerSortedTest(){
+        Loan byIsbn = createAndPersistLoan(LocalDate.now().minusDays(2));
+        Loan newest = entityManager.persist(Loan.builder().book(createAndPersistBook("456")).customer("Fulano").loanDate(LocalDate.now()).build());
+        Loan oldest = entityManager.persist(Loan.builder().book(createAndPersistBook("789")).customer("Fulano").loanDate(LocalDate.now().minusDays(5)).build());
+        entityManager.flush();
+
+        List<Long> byDateDesc = repository.findIdsByBookIsbnOrCustomer("123", "Fulano",
+                PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "loanDate")));
+        List<Long> byCustomerThenDate = repository.findIdsByBookIsbnOrCustomer("123", "Fulano",
+                PageRequest.of(0, 2, Sort.by("customer", "loanDate")));
+        List<Long> secondPage = repository.findIdsByBookIsbnOrCustomer("123", "Fulano",
+                PageRequest.of(1, 2, Sort.by(Sort.Direction.DESC, "loanDate")));
+
+        assertThat(byDateDesc).containsExactly(newest.getId(), byIsbn.getId(), oldest.getId());
+        assertThat(byCustomerThenDate).containsExactly(oldest.getId(), byIsbn.getId());
+        assertThat(secondPage).containsExactly(oldest.getId());
     }
 
     @Test
@@ -74,6 +105,204 @@ public class LoanRepositoryTest {
         Assertions.assertEquals(true,result.isEmpty());
     }
 
+    @Test
+    @DisplayName("Deve carregar a pagina de emprestimos com os livros em uma consulta mais os ids e a contagem")
+    public void findByBookIsbnOrCustomerWithoutNPlusOneTest(){
+        List<Long> persisted = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Book book = createNewBook("isbn-" + i);
+            entityManager.persist(book);
+            persisted.add(entityManager.persist(Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).build()).getId());
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        // segunda pagina de 3: o banco devolve so os 2 ids dela, nao todos os que casam com o filtro
+        List<Long> ids = repository.findIdsByBookIsbnOrCustomer("000", "Fulano", PageRequest.of(1, 3));
+        List<Loan> result = repository.findWithBookByIds(ids);
+        result.forEach(loan -> loan.getBook().getIsbn());
+        long total = repository.countByBookIsbnOrCustomer("000", "Fulano");
+
+        assertThat(ids).isEqualTo(persisted.subList(3, 5));
+        assertThat(result).extracting(Loan::getId).isEqualTo(ids);
+        assertThat(total).isEqualTo(5);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve carregar os emprestimos de um livro sem consultas extras por emprestimo")
+    public void findByBookWithoutNPlusOneTest(){
+        Book book = createNewBook("123");
+        entityManager.persist(book);
+        for (int i = 0; i < 5; i++) {
+            entityManager.persist(Loan.builder().book(book).customer("Fulano " + i).loanDate(LocalDate.now()).returned(i > 0).build());
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        Page<Loan> result = repository.findByBook(entityManager.find(Book.class, book.getId()), PageRequest.of(0, 3));
+        result.getContent().forEach(loan -> loan.getBook().getIsbn());
+
+        assertThat(result.getContent()).hasSize(3);
+        assertThat(result.getTotalElements()).isEqualTo(5);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve buscar emprestimos pelo isbn ou customer a partir do ultimo id, sem contagem")
+    public void findByBookIsbnOrCustomerAfterTest(){
+        Loan first = createAndPersistLoan(LocalDate.now());
+        Loan second = entityManager.persist(Loan.builder().book(first.getBook()).customer("Ciclano").loanDate(LocalDate.now()).returned(true).build());
+        Loan third = entityManager.persist(Loan.builder().book(createAndPersistBook("456")).customer("Fulano").loanDate(LocalDate.now()).build());
+        entityManager.persist(Loan.builder().book(createAndPersistBook("789")).customer("Beltrano").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        List<Long> ids = new ArrayList<>();
+        repository.findIdsByBookIsbnOrCustomerAfter("123", "Fulano", first.getId(), 10).forEach(id -> ids.add(id.longValue()));
+        List<Loan> result = repository.findWithBookByIds(ids);
+
+        assertThat(result).containsExactly(second, third);
+        assertThat(repository.findByBookIsbnAfter("123", first.getId(), PageRequest.of(0, 10))).containsExactly(second);
+        assertThat(repository.findByCustomerAfter("Fulano", first.getId(), PageRequest.of(0, 10))).containsExactly(third);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Deve inserir emprestimos em lotes do JDBC")
+    public void saveAllInBatchesTest(){
+        Book book = createAndPersistBook("123");
+        entityManager.flush();
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        List<Loan> loans = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            loans.add(Loan.builder().book(book).customer("Fulano " + i).loanDate(LocalDate.now()).returned(i > 0).build());
+        }
+        repository.saveAll(loans);
+        entityManager.flush();
+
+        assertThat(repository.count()).isEqualTo(120);
+        assertThat(statistics.getPrepareStatementCount()).isLessThan(20);
+    }
+
+    @Test
+    @DisplayName("Deve devolver em lote com um unico UPDATE apenas os emprestimos em aberto")
+    public void markReturnedTest(){
+        Loan open = createAndPersistLoan(LocalDate.now());
+        Loan other = entityManager.persist(Loan.builder().book(createAndPersistBook("456")).customer("Fulano").loanDate(LocalDate.now()).build());
+        Loan returned = entityManager.persist(Loan.builder().book(createAndPersistBook("789")).customer("Fulano").loanDate(LocalDate.now()).returned(true).build());
+        entityManager.flush();
+
+        List<LoanReturnEntry> entries = repository.findOpenReturnEntriesByIsbns(Arrays.asList("123", "789"));
+        assertThat(entries).extracting(LoanReturnEntry::getId, LoanReturnEntry::getBookId, LoanReturnEntry::getIsbn)
+                .containsExactly(tuple(open.getId(), open.getBook().getId(), "123"));
+
+        Statistics statistics = statistics();
+        statistics.clear();
+
+        int updated = repository.markReturned(Arrays.asList(open.getId(), other.getId(), returned.getId()));
+
+        assertThat(updated).isEqualTo(2);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(repository.findOpenLoanIds(Arrays.asList(open.getId(), other.getId(), returned.getId()))).isEmpty();
+        assertThat(repository.findReturnEntriesByIds(Arrays.asList(open.getId(), returned.getId())))
+                .extracting(LoanReturnEntry::getReturned).containsOnly(true);
+    }
+
+    @Test
+    @DisplayName("Deve recusar no banco um segundo emprestimo aberto do mesmo livro e liberar o livro ao devolver")
+    public void openLoanPerBookConstraintTest(){
+        Loan open = createAndPersistLoan(LocalDate.now());
+        Book book = open.getBook();
+        entityManager.flush();
+
+        assertThat(repository.findOpenLoanIdsByBook(book.getId(), PageRequest.of(0, 1))).containsExactly(open.getId());
+        Assertions.assertThrows(PersistenceException.class, () -> {
+            entityManager.persist(Loan.builder().book(book).customer("Ciclano").loanDate(LocalDate.now()).build());
+            entityManager.flush();
+        });
+    }
+
+    @Test
+    @DisplayName("Deve permitir um novo emprestimo do livro depois da devolucao em lote")
+    public void loanAgainAfterMarkReturnedTest(){
+        Loan open = createAndPersistLoan(LocalDate.now());
+        Book book = open.getBook();
+        entityManager.flush();
+
+        repository.markReturned(Arrays.asList(open.getId()));
+        Loan again = repository.saveAndFlush(Loan.builder().book(book).customer("Ciclano").loanDate(LocalDate.now()).build());
+
+        assertThat(again.getOpenBookId()).isEqualTo(book.getId());
+        assertThat(repository.findOpenLoanIdsByBook(book.getId(), PageRequest.of(0, 1))).containsExactly(again.getId());
+    }
+
+    @Test
+    @DisplayName("Deve carregar apenas os emprestimos em aberto dos ids informados, na ordem de data")
+    public void findOpenLoansByIdsTest(){
+        Loan older = createAndPersistLoan(LocalDate.now().minusDays(10));
+        Loan newer = entityManager.persist(Loan.builder().book(createAndPersistBook("456")).customer("Fulano").loanDate(LocalDate.now().minusDays(5)).build());
+        Loan returned = entityManager.persist(Loan.builder().book(createAndPersistBook("789")).customer("Fulano").loanDate(LocalDate.now().minusDays(7)).returned(true).build());
+        entityManager.flush();
+
+        List<Loan> result = repository.findOpenLoansByIds(Arrays.asList(newer.getId(), returned.getId(), older.getId()));
+
+        assertThat(result).containsExactly(older, newer);
+        assertThat(repository.findOpenLoanEntries()).extracting(OpenLoanEntry::getId).containsExactlyInAnyOrder(older.getId(), newer.getId());
+    }
+
+    @Test
+    @DisplayName("Deve buscar o historico e os emprestimos em aberto de um cliente")
+    public void findByCustomerTest(){
+        Loan returned = entityManager.persist(Loan.builder().book(createAndPersistBook("456")).customer("Fulano").loanDate(LocalDate.now().minusDays(9)).returned(true).build());
+        Loan open = createAndPersistLoan(LocalDate.now().minusDays(2));
+        entityManager.persist(Loan.builder().book(createAndPersistBook("789")).customer("Beltrano").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+        entityManager.clear();
+
+        Page<Loan> history = repository.findByCustomer("Fulano", PageRequest.of(0, 10));
+        List<Loan> openLoans = repository.findOpenByCustomer("Fulano");
+
+        assertThat(history.getContent()).extracting(Loan::getId).containsExactlyInAnyOrder(returned.getId(), open.getId());
+        assertThat(openLoans).extracting(Loan::getId).containsExactly(open.getId());
+        assertThat(openLoans.get(0).getBook().getIsbn()).isEqualTo("123");
+    }
+
+    @Test
+    @DisplayName("Deve contar os emprestimos por data e por isbn para reconciliar as estatisticas")
+    public void countLoansForStatisticsTest(){
+        LocalDate today = LocalDate.now();
+        Loan first = createAndPersistLoan(today);
+        entityManager.persist(Loan.builder().book(first.getBook()).customer("Ciclano").loanDate(today.minusDays(40)).returned(true).build());
+        entityManager.persist(Loan.builder().book(createAndPersistBook("456")).customer("Beltrano").loanDate(today).returned(true).build());
+        entityManager.flush();
+
+        assertThat(repository.countOpenLoansByDate()).extracting(LoanDateCount::getLoanDate, LoanDateCount::getTotal)
+                .containsExactly(tuple(today, 1L));
+        assertThat(repository.countLoansByDateSince(today.minusDays(29))).extracting(LoanDateCount::getLoanDate, LoanDateCount::getTotal)
+                .containsExactly(tuple(today, 2L));
+        assertThat(repository.countLoansByIsbn(PageRequest.of(0, 1))).extracting(IsbnCount::getIsbn, IsbnCount::getTotal)
+                .containsExactly(tuple("123", 2L));
+    }
+
+    private Statistics statistics(){
+        return entityManager.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+    }
+
+    private Book createAndPersistBook(String isbn){
+        return entityManager.persist(createNewBook(isbn));
+    }
+
     public Loan createAndPersistLoan(LocalDate loanDate){
         Book book = createNewBook("123");
         entityManager.persist(book);
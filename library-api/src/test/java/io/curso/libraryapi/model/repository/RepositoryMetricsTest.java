@@ -0,0 +1,53 @@
+package io.curso.libraryapi.model.repository;
+
+import io.curso.libraryapi.api.repository.BookRepository;
+import io.curso.libraryapi.config.MetricsConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import static io.curso.libraryapi.model.repository.BookRepositoryTest.createNewBook;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@ImportAutoConfiguration(AopAutoConfiguration.class)
+@Import({MetricsConfig.class, SimpleMeterRegistry.class})
+public class RepositoryMetricsTest {
+
+    @Autowired
+    BookRepository repository;
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    @DisplayName("Deve medir o tempo das chamadas aos repositorios por repositorio e metodo")
+    public void repositoryInvocationTimerTest(){
+        repository.save(createNewBook("123"));
+        repository.existsByIsbn("123");
+        repository.existsByIsbn("456");
+
+        Timer exists = meterRegistry.find(MetricsConfig.REPOSITORY_TIMER)
+                .tags("repository", "BookRepository", "method", "existsByIsbn", "exception", "none")
+                .timer();
+        Timer save = meterRegistry.find(MetricsConfig.REPOSITORY_TIMER)
+                .tags("repository", "BookRepository", "method", "save")
+                .timer();
+
+        assertThat(exists).isNotNull();
+        assertThat(exists.count()).isEqualTo(2);
+        assertThat(save).isNotNull();
+        assertThat(save.count()).isEqualTo(1);
+    }
+}
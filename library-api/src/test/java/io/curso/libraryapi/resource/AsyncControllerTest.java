@@ -0,0 +1,104 @@
+package io.curso.libraryapi.resource;
+
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.api.resource.BookController;
+import io.curso.libraryapi.api.resource.LoanController;
+import io.curso.libraryapi.config.AsyncApiConfig;
+import io.curso.libraryapi.service.BookImportService;
+import io.curso.libraryapi.service.BookService;
+import io.curso.libraryapi.service.LoanService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.BDDMockito;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@WebMvcTest(controllers = {BookController.class, LoanController.class}, properties = "application.api.async.enabled=true")
+@Import({AsyncApiConfig.class, SimpleMeterRegistry.class})
+@AutoConfigureMockMvc
+public class AsyncControllerTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @MockBean
+    BookService bookService;
+
+    @MockBean
+    LoanService loanService;
+
+    @MockBean
+    BookImportService importService;
+
+    @Test
+    @DisplayName("Deve obter os detalhes do livro de forma assincrona")
+    public void getBookDetailsTest() throws Exception {
+        Book book = Book.builder().id(1L).title("Meu Livro").autor("Autor").isbn("123").build();
+        BDDMockito.given(bookService.getById(1L)).willReturn(Optional.of(book));
+
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get("/api/books/1").accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("id").value(1))
+                .andExpect(jsonPath("isbn").value("123"));
+    }
+
+    @Test
+    @DisplayName("Deve retornar 404 de forma assincrona quando o livro não existir")
+    public void bookNotFoundTest() throws Exception {
+        BDDMockito.given(bookService.getById(Mockito.anyLong())).willReturn(Optional.empty());
+
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get("/api/books/1").accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc.perform(asyncDispatch(result)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Deve filtrar emprestimos de forma assincrona")
+    public void findLoansTest() throws Exception {
+        Book book = Book.builder().id(1L).isbn("123").build();
+        Loan loan = Loan.builder().id(1L).customer("Fulano").book(book).loanDate(LocalDate.now()).build();
+        BDDMockito.given(loanService.find(Mockito.any(), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<>(Arrays.asList(loan), PageRequest.of(0, 10), 1));
+
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get("/api/loans?isbn=123&page=0&size=10").accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", hasSize(1)))
+                .andExpect(jsonPath("totalElements").value(1));
+    }
+}
@@ -4,9 +4,15 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import io.curso.libraryapi.api.dto.BookDTO;
 import io.curso.libraryapi.api.repository.Book;
 import io.curso.libraryapi.api.resource.BookController;
+import io.curso.libraryapi.api.resource.CursorToken;
 import io.curso.libraryapi.exception.BusinessException;
+import io.curso.libraryapi.api.importer.BookImportRow;
+import io.curso.libraryapi.service.BookImportResult;
+import io.curso.libraryapi.service.BookImportService;
 import io.curso.libraryapi.service.BookService;
 import io.curso.libraryapi.service.LoanService;
+import io.curso.libraryapi.config.AsyncApiConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -17,19 +23,29 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -39,6 +55,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
 @WebMvcTest(controllers = BookController.class)
+@Import({AsyncApiConfig.class, SimpleMeterRegistry.class})
 @AutoConfigureMockMvc
 public class BookControllerTest {
 
@@ -54,6 +71,9 @@ public class BookControllerTest {
     @MockBean
     LoanService loanService;
 
+    @MockBean
+    BookImportService importService;
+
     @Test
     @DisplayName("Deve criar um livro com sucesso.")
     public void createBookTest() throws Exception {
@@ -70,8 +90,7 @@ public class BookControllerTest {
                 .accept(MediaType.APPLICATION_JSON)
                 .content(json);
 
-        mvc
-                .perform(request)
+        perform(request)
                 .andExpect( status().isCreated() )
                 .andExpect( jsonPath("id").value(10l) )
                 .andExpect( jsonPath("title").value(dto.getTitle()) )
@@ -94,7 +113,7 @@ public class BookControllerTest {
                 .accept(MediaType.APPLICATION_JSON)
                 .content(json);
 
-        mvc.perform(request)
+        perform(request)
                 .andExpect( status().isBadRequest() )
                 .andExpect( jsonPath("errors", hasSize(3)));
     }
@@ -115,7 +134,7 @@ public class BookControllerTest {
                 .accept(MediaType.APPLICATION_JSON)
                 .content(json);
 
-        mvc.perform( request )
+        perform( request )
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("errors", hasSize(1)))
                 .andExpect(jsonPath("errors[0]").value(mensagemErro));
@@ -142,8 +161,7 @@ public class BookControllerTest {
                 .get(BOOK_API.concat("/" + id))
                 .accept(MediaType.APPLICATION_JSON);
 
-        mvc
-                .perform(request)
+        perform(request)
                 .andExpect(status().isOk())
                 .andExpect( jsonPath("id").value(id) )
                 .andExpect( jsonPath("title").value(createNewBook().getTitle()) )
@@ -162,8 +180,7 @@ public class BookControllerTest {
                 .get(BOOK_API.concat("/" + 1))
                 .accept(MediaType.APPLICATION_JSON);
 
-        mvc
-                .perform(request)
+        perform(request)
                 .andExpect(status().isNotFound());
     }
 
@@ -171,12 +188,12 @@ public class BookControllerTest {
     @DisplayName("Deve deletar um livro")
     public void deleteBookTest() throws Exception {
 
-        BDDMockito.given(service.getById(anyLong())).willReturn(Optional.of(Book.builder().id(1l).build()));
+        BDDMockito.given(service.getByIdForWrite(anyLong())).willReturn(Optional.of(Book.builder().id(1l).build()));
 
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
                 .delete(BOOK_API.concat("/" + 1));
 
-        mvc.perform( request )
+        perform( request )
                 .andExpect( status().isNoContent() );
     }
 
@@ -184,12 +201,12 @@ public class BookControllerTest {
     @DisplayName("Deve retornar resource not found quando não encontrar o livro para deletar")
     public void deleteInexistentBookTest() throws Exception {
 
-        BDDMockito.given(service.getById(anyLong())).willReturn(Optional.empty());
+        BDDMockito.given(service.getByIdForWrite(anyLong())).willReturn(Optional.empty());
 
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
                 .delete(BOOK_API.concat("/" + 1));
 
-        mvc.perform( request )
+        perform( request )
                 .andExpect( status().isNotFound() );
     }
 
@@ -200,9 +217,9 @@ public class BookControllerTest {
         String json = new ObjectMapper().writeValueAsString(createNewBook());
 
         Book updatingBook = Book.builder().id(1l).title("some title").autor("some author").isbn("321").build();
-        BDDMockito.given( service.getById(id) ).willReturn( Optional.of(updatingBook) );
+        BDDMockito.given( service.getByIdForWrite(id) ).willReturn( Optional.of(updatingBook) );
         Book updatedBook = Book.builder().id(id).autor("Artur").title("As aventuras").isbn("321").build();
-        BDDMockito.given(service.update(updatingBook)).willReturn(updatedBook);
+        BDDMockito.given(service.update(updatedBook)).willReturn(updatedBook);
 
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
                 .put(BOOK_API.concat("/" + 1))
@@ -210,7 +227,7 @@ public class BookControllerTest {
                 .accept(MediaType.APPLICATION_JSON)
                 .contentType(MediaType.APPLICATION_JSON);
 
-        mvc.perform( request )
+        perform( request )
                 .andExpect( status().isOk() )
                 .andExpect( jsonPath("id").value(id) )
                 .andExpect( jsonPath("title").value(createNewBook().getTitle()) )
@@ -218,12 +235,36 @@ public class BookControllerTest {
                 .andExpect( jsonPath("isbn").value("321") );
     }
 
+    @Test
+    @DisplayName("Deve atualizar um livro sem alterar a instancia obtida")
+    public void updateBookKeepsCachedInstanceTest() throws Exception {
+        Long id = 1l;
+        String json = new ObjectMapper().writeValueAsString(createNewBook());
+
+        Book cachedBook = Book.builder().id(id).title("some title").autor("some author").isbn("321").build();
+        BDDMockito.given( service.getByIdForWrite(id) ).willReturn( Optional.of(cachedBook) );
+        BDDMockito.given( service.update(Mockito.any(Book.class)) ).willAnswer( invocation -> invocation.getArgument(0) );
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .put(BOOK_API.concat("/" + 1))
+                .content(json)
+                .accept(MediaType.APPLICATION_JSON)
+                .contentType(MediaType.APPLICATION_JSON);
+
+        perform( request )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath("title").value(createNewBook().getTitle()) );
+
+        assertThat(cachedBook.getTitle()).isEqualTo("some title");
+        assertThat(cachedBook.getAutor()).isEqualTo("some author");
+    }
+
     @Test
     @DisplayName("Deve retornar 404 ao tentar atualizar um livro inexistente")
     public void updateInexistentBookTest() throws Exception {
 
         String json = new ObjectMapper().writeValueAsString(createNewBook());
-        BDDMockito.given( service.getById(Mockito.anyLong()) )
+        BDDMockito.given( service.getByIdForWrite(Mockito.anyLong()) )
                 .willReturn( Optional.empty() );
 
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
@@ -232,7 +273,7 @@ public class BookControllerTest {
                 .accept(MediaType.APPLICATION_JSON)
                 .contentType(MediaType.APPLICATION_JSON);
 
-        mvc.perform( request )
+        perform( request )
                 .andExpect( status().isNotFound() );
     }
 
@@ -259,8 +300,7 @@ public class BookControllerTest {
                 .get(BOOK_API.concat(queryString))
                 .accept(MediaType.APPLICATION_JSON);
 
-        mvc
-                .perform( request )
+        perform( request )
                 .andExpect( status().isOk() )
                 .andExpect( jsonPath("content", Matchers.hasSize(1)))
                 .andExpect( jsonPath("totalElements").value(1) )
@@ -272,4 +312,116 @@ public class BookControllerTest {
     private BookDTO createNewBook() {
         return BookDTO.builder().autor("Artur").title("As aventuras").isbn("001").build();
     }
+    @Test
+    @DisplayName("Deve listar livros por cursor sem consulta de contagem")
+    public void findBooksByCursorTest() throws Exception{
+        Book first = Book.builder().id(11L).title("As aventuras").autor("Autor").isbn("001").build();
+        Book second = Book.builder().id(12L).title("As aventuras 2").autor("Autor").isbn("002").build();
+
+        BDDMockito.given( service.findAfter(Mockito.any(Book.class), Mockito.eq(10L), Mockito.eq(2)) )
+                .willReturn( new SliceImpl<Book>( Arrays.asList(first, second), PageRequest.of(0, 2), true ) );
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?title=aventuras&size=2&cursor=" + CursorToken.encode(10L)))
+                .accept(MediaType.APPLICATION_JSON);
+
+        perform( request )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath("content", Matchers.hasSize(2)) )
+                .andExpect( jsonPath("size").value(2) )
+                .andExpect( jsonPath("next").value(CursorToken.encode(12L)) )
+                .andExpect( jsonPath("totalElements").doesNotExist() );
+
+        Mockito.verify(service, Mockito.never()).find(Mockito.any(Book.class), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Deve retornar bad request quando o cursor for invalido")
+    public void findBooksByInvalidCursorTest() throws Exception{
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?cursor=invalido"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        perform( request ).andExpect( status().isBadRequest() );
+    }
+
+    @Test
+    @DisplayName("Deve importar livros de um array JSON")
+    public void importBooksFromJsonTest() throws Exception{
+        List<BookImportRow> rows = new ArrayList<>();
+        BDDMockito.given( importService.importBooks(Mockito.any()) ).willAnswer( invocation -> {
+            Iterator<BookImportRow> iterator = invocation.getArgument(0);
+            iterator.forEachRemaining(rows::add);
+            return new BookImportResult(2, 2, 0, new ArrayList<>());
+        });
+
+        String json = "[{\"title\":\"As aventuras\",\"autor\":\"Fulano\",\"isbn\":\"001\"},"
+                + "{\"title\":\"Outro\",\"autor\":\"Ciclano\",\"isbn\":\"002\"}]";
+
+        perform( MockMvcRequestBuilders.post(BOOK_API.concat("/import"))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.APPLICATION_JSON)
+                    .content(json) )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath("imported").value(2) );
+
+        assertThat(rows).extracting(row -> row.getBook().getIsbn()).containsExactly("001", "002");
+        assertThat(rows).extracting(BookImportRow::getRow).containsExactly(1L, 2L);
+    }
+
+    @Test
+    @DisplayName("Deve importar livros de um CSV com cabecalho e reportar linhas invalidas")
+    public void importBooksFromCsvTest() throws Exception{
+        List<BookImportRow> rows = new ArrayList<>();
+        BDDMockito.given( importService.importBooks(Mockito.any()) ).willAnswer( invocation -> {
+            Iterator<BookImportRow> iterator = invocation.getArgument(0);
+            iterator.forEachRemaining(rows::add);
+            return new BookImportResult(3, 2, 1, new ArrayList<>());
+        });
+
+        String csv = "isbn,title,autor\n001,\"Aventuras, \"\"volume 1\"\"\",Fulano\n002,Outro\n003,Mais um,Ciclano\n";
+
+        perform( MockMvcRequestBuilders.post(BOOK_API.concat("/import"))
+                    .contentType("text/csv")
+                    .accept(MediaType.APPLICATION_JSON)
+                    .content(csv) )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath("failed").value(1) );
+
+        assertThat(rows).hasSize(3);
+        assertThat(rows.get(0).getBook().getTitle()).isEqualTo("Aventuras, \"volume 1\"");
+        assertThat(rows.get(0).getBook().getIsbn()).isEqualTo("001");
+        assertThat(rows.get(1).getError()).isNotNull();
+        assertThat(rows.get(1).getRow()).isEqualTo(3L);
+        assertThat(rows.get(2).getBook().getAutor()).isEqualTo("Ciclano");
+    }
+
+    @Test
+    @DisplayName("Deve retornar bad request ao importar um JSON que nao e um array")
+    public void importBooksFromInvalidJsonTest() throws Exception{
+        perform( MockMvcRequestBuilders.post(BOOK_API.concat("/import"))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"isbn\":\"001\"}") )
+                .andExpect( status().isBadRequest() );
+
+        Mockito.verify(importService, Mockito.never()).importBooks(Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Deve retornar bad request ao importar um corpo que nao e JSON")
+    public void importBooksFromMalformedJsonTest() throws Exception{
+        perform( MockMvcRequestBuilders.post(BOOK_API.concat("/import"))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("title,autor,isbn") )
+                .andExpect( status().isBadRequest() );
+
+        Mockito.verify(importService, Mockito.never()).importBooks(Mockito.any());
+    }
+
+    // os endpoints devolvem CompletableFuture: a resposta so e escrita no dispatch assincrono
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        ResultActions actions = mvc.perform(request);
+        MvcResult result = actions.andReturn();
+        return result.getRequest().isAsyncStarted() ? mvc.perform(asyncDispatch(result)) : actions;
+    }
 }
@@ -3,16 +3,22 @@ package io.curso.libraryapi.resource;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.curso.libraryapi.api.dto.BulkReturnDTO;
 import io.curso.libraryapi.api.dto.LoanDto;
 import io.curso.libraryapi.api.dto.LoanFilterDTO;
 import io.curso.libraryapi.api.dto.ReturnedDTO;
 import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.resource.CursorToken;
 import io.curso.libraryapi.api.resource.LoanController;
 import io.curso.libraryapi.service.BookService;
 import io.curso.libraryapi.exception.BusinessException;
 import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.service.LoanReturnResult;
 import io.curso.libraryapi.service.LoanService;
+import io.curso.libraryapi.service.LoanStatistics;
 import io.curso.libraryapi.service.LoanServiceTest;
+import io.curso.libraryapi.config.AsyncApiConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.Builder;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.DisplayName;
@@ -24,27 +30,40 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.Optional;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.hamcrest.Matchers.hasSize;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
 @WebMvcTest(controllers = {LoanController.class})
+@Import({AsyncApiConfig.class, SimpleMeterRegistry.class})
 @AutoConfigureMockMvc
 public class LoanControllerTest {
 
@@ -73,7 +92,7 @@ public class LoanControllerTest {
 
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(LOAN_API).accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON).content(json);
 
-        mvc.perform(request)
+        perform(request)
                 .andExpect(status().isCreated())
                 .andExpect(content().string("1"));
 
@@ -91,7 +110,7 @@ public class LoanControllerTest {
 
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(LOAN_API).accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON).content(json);
 
-        mvc.perform(request)
+        perform(request)
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("errors", Matchers.hasSize(1)))
                 .andExpect(MockMvcResultMatchers.jsonPath("errors[0]").value("Book already loaned"));
@@ -108,7 +127,7 @@ public class LoanControllerTest {
 
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(LOAN_API).accept(MediaType.APPLICATION_JSON).contentType(MediaType.APPLICATION_JSON).content(json);
 
-        mvc.perform(request)
+        perform(request)
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("errors", Matchers.hasSize(1)))
                 .andExpect(MockMvcResultMatchers.jsonPath("errors[0]").value("400 BAD_REQUEST \"Book not found for passed isbn\""));
@@ -120,9 +139,9 @@ public class LoanControllerTest {
         ReturnedDTO dto = ReturnedDTO.builder().returned(true).build();
         String json = new ObjectMapper().writeValueAsString(dto);
         Loan loan = Loan.builder().id(1L).build();
-        BDDMockito.given(loanService.getById(Mockito.anyLong())).willReturn(Optional.of(loan));
+        BDDMockito.given(loanService.getByIdForWrite(Mockito.anyLong())).willReturn(Optional.of(loan));
 
-        mvc.perform(MockMvcRequestBuilders.patch(LOAN_API.concat("/1"))
+        perform(MockMvcRequestBuilders.patch(LOAN_API.concat("/1"))
                 .accept(MediaType.APPLICATION_JSON)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(json))
@@ -131,14 +150,113 @@ public class LoanControllerTest {
         Mockito.verify(loanService, Mockito.times(1)).update(loan);
     }
 
+    @Test
+    @DisplayName("Deve devolver emprestimos em lote informando o resultado de cada um")
+    public void returnBooksInBulkTest() throws Exception {
+        BulkReturnDTO dto = BulkReturnDTO.builder().loanIds(Arrays.asList(1L, 2L)).isbns(Arrays.asList("123")).build();
+        String json = new ObjectMapper().writeValueAsString(dto);
+        BDDMockito.given(loanService.returnLoans(dto.getLoanIds(), dto.getIsbns())).willReturn(Arrays.asList(
+                new LoanReturnResult(1L, "456", LoanReturnResult.Status.RETURNED),
+                new LoanReturnResult(2L, null, LoanReturnResult.Status.NOT_FOUND),
+                new LoanReturnResult(3L, "123", LoanReturnResult.Status.ALREADY_RETURNED)));
+
+        perform(MockMvcRequestBuilders.post(LOAN_API.concat("/returns"))
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].status").value("RETURNED"))
+                .andExpect(jsonPath("$[1].status").value("NOT_FOUND"))
+                .andExpect(jsonPath("$[2].isbn").value("123"));
+    }
+
+    @Test
+    @DisplayName("Deve retornar 400 ao devolver em lote sem ids nem isbns")
+    public void returnBooksInBulkWithoutIdsTest() throws Exception {
+        String json = new ObjectMapper().writeValueAsString(new BulkReturnDTO());
+
+        perform(MockMvcRequestBuilders.post(LOAN_API.concat("/returns"))
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().isBadRequest());
+
+        Mockito.verify(loanService, Mockito.never()).returnLoans(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    @DisplayName("Deve listar os emprestimos em aberto de um cliente")
+    public void openLoansByCustomerTest() throws Exception {
+        Book book = Book.builder().id(1L).isbn("123").build();
+        Loan loan = Loan.builder().id(1L).customer("Fulano").book(book).loanDate(LocalDate.now()).build();
+        BDDMockito.given(loanService.getOpenLoansByCustomer("Fulano")).willReturn(Arrays.asList(loan));
+
+        perform(MockMvcRequestBuilders.get(LOAN_API.concat("/customers/Fulano/open")).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].book.isbn").value("123"));
+
+        Mockito.verify(loanService, Mockito.never()).find(Mockito.any(), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Deve paginar o historico de emprestimos de um cliente")
+    public void loansByCustomerTest() throws Exception {
+        Book book = Book.builder().id(1L).isbn("123").build();
+        Loan loan = Loan.builder().id(1L).customer("Fulano").book(book).loanDate(LocalDate.now()).returned(true).build();
+        BDDMockito.given(loanService.getLoansByCustomer(Mockito.eq("Fulano"), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<>(Arrays.asList(loan), PageRequest.of(0, 10), 1));
+
+        perform(MockMvcRequestBuilders.get(LOAN_API.concat("/customers/Fulano?page=0&size=10")).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", hasSize(1)))
+                .andExpect(jsonPath("totalElements").value(1));
+    }
+
+    @Test
+    @DisplayName("Deve atender na propria thread da requisicao com o modo assincrono desligado")
+    public void syncModeRunsOnRequestThreadTest() throws Exception {
+        Thread requestThread = Thread.currentThread();
+        List<Thread> serviceThreads = new ArrayList<>();
+        BDDMockito.given(loanService.getOpenLoansByCustomer("Fulano")).willAnswer(invocation -> {
+            serviceThreads.add(Thread.currentThread());
+            return Collections.emptyList();
+        });
+
+        perform(MockMvcRequestBuilders.get(LOAN_API.concat("/customers/Fulano/open")).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(0)));
+
+        assertThat(serviceThreads).containsExactly(requestThread);
+    }
+
+    @Test
+    @DisplayName("Deve retornar as estatisticas dos emprestimos")
+    public void statisticsTest() throws Exception {
+        SortedMap<LocalDate, Long> perDay = new TreeMap<>();
+        perDay.put(LocalDate.of(2020, 1, 10), 4L);
+        LoanStatistics statistics = new LoanStatistics(12, 3, perDay,
+                Arrays.asList(new LoanStatistics.PopularBook("123", 7)));
+        BDDMockito.given(loanService.getStatistics()).willReturn(statistics);
+
+        perform(MockMvcRequestBuilders.get(LOAN_API.concat("/statistics")).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("openLoans").value(12))
+                .andExpect(jsonPath("overdueLoans").value(3))
+                .andExpect(jsonPath("loansPerDay['2020-01-10']").value(4))
+                .andExpect(jsonPath("mostBorrowed[0].isbn").value("123"))
+                .andExpect(jsonPath("mostBorrowed[0].loans").value(7));
+    }
+
     @Test
     @DisplayName("Deve retornar 404 quando tentar devolver um livro inexistente.")
     public void returnInexistentBookTest() throws Exception {
         ReturnedDTO dto = ReturnedDTO.builder().returned(true).build();
         String json = new ObjectMapper().writeValueAsString(dto);
-        BDDMockito.given(loanService.getById(Mockito.anyLong())).willReturn(Optional.empty());
+        BDDMockito.given(loanService.getByIdForWrite(Mockito.anyLong())).willReturn(Optional.empty());
 
-        mvc.perform(MockMvcRequestBuilders.patch(LOAN_API.concat("/1"))
+        perform(MockMvcRequestBuilders.patch(LOAN_API.concat("/1"))
                         .accept(MediaType.APPLICATION_JSON)
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(json))
@@ -161,7 +279,7 @@ public class LoanControllerTest {
                 .get(LOAN_API.concat(queryString))
                 .accept(MediaType.APPLICATION_JSON);
 
-        mvc.perform(request)
+        perform(request)
                 .andExpect(MockMvcResultMatchers.status().isOk())
                 .andExpect(MockMvcResultMatchers.jsonPath("content", hasSize(1)))
                 .andExpect(MockMvcResultMatchers.jsonPath("totalElements").value(1))
@@ -169,5 +287,31 @@ public class LoanControllerTest {
                 .andExpect(MockMvcResultMatchers.jsonPath("pageable.pageNumber").value(0));
     }
 
+    @Test
+    @DisplayName("Deve filtrar emprestimos por cursor, iniciando pela primeira pagina")
+    public void findLoansByCursorTest() throws Exception {
+        Loan loan = LoanServiceTest.createLoan();
+        loan.setId(5L);
+        loan.setBook(Book.builder().id(1L).isbn("321").build());
+        BDDMockito.given(loanService.findAfter(Mockito.any(LoanFilterDTO.class), Mockito.isNull(), Mockito.eq(20)))
+                .willReturn(new SliceImpl<Loan>(Arrays.asList(loan), PageRequest.of(0, 20), false));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(LOAN_API.concat("?customer=Fulano&cursor="))
+                .accept(MediaType.APPLICATION_JSON);
 
+        perform(request)
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("content", hasSize(1)))
+                .andExpect(MockMvcResultMatchers.jsonPath("content[0].book.isbn").value("321"))
+                .andExpect(MockMvcResultMatchers.jsonPath("size").value(20))
+                .andExpect(MockMvcResultMatchers.jsonPath("next").doesNotExist());
+    }
+
+    // os endpoints devolvem CompletableFuture: a resposta so e escrita no dispatch assincrono
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        ResultActions actions = mvc.perform(request);
+        MvcResult result = actions.andReturn();
+        return result.getRequest().isAsyncStarted() ? mvc.perform(asyncDispatch(result)) : actions;
+    }
 }
@@ -0,0 +1,116 @@
+package io.curso.libraryapi.service;
+
+import io.curso.libraryapi.api.importer.BookImportRow;
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.BookRepository;
+import io.curso.libraryapi.service.imp.BookImportServiceImpl;
+import io.curso.libraryapi.service.index.BookSearchIndex;
+import io.curso.libraryapi.service.index.IsbnIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class BookImportServiceTest {
+
+    BookImportService service;
+    @MockBean
+    BookRepository repository;
+    IsbnIndex isbnIndex;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    @BeforeEach
+    void setUp(){
+        isbnIndex = new IsbnIndex();
+        service = new BookImportServiceImpl(repository, isbnIndex, new BookSearchIndex(), 2, 10);
+        Mockito.when(repository.saveAll(Mockito.anyList())).thenAnswer(invocation -> {
+            List<Book> books = invocation.getArgument(0);
+            books.forEach(book -> book.setId(ids.incrementAndGet()));
+            return new ArrayList<>(books);
+        });
+    }
+
+    @Test
+    @DisplayName("Deve importar os livros em lotes com uma consulta de isbn por lote")
+    public void importInChunksTest(){
+        List<BookImportRow> rows = Arrays.asList(row(1, "001"), row(2, "002"), row(3, "003"));
+        Mockito.when(repository.findExistingIsbns(Mockito.anyCollection())).thenReturn(Collections.emptyList());
+
+        BookImportResult result = service.importBooks(rows.iterator());
+
+        assertThat(result.getRead()).isEqualTo(3);
+        assertThat(result.getImported()).isEqualTo(3);
+        assertThat(result.getFailed()).isZero();
+        Mockito.verify(repository, Mockito.times(2)).findExistingIsbns(Mockito.anyCollection());
+        Mockito.verify(repository, Mockito.times(2)).saveAll(Mockito.anyList());
+        Mockito.verify(repository, Mockito.never()).existsByIsbn(Mockito.anyString());
+        assertThat(isbnIndex.size()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve reportar por linha os livros invalidos, repetidos e ja cadastrados")
+    public void reportRowErrorsTest(){
+        Book incomplete = Book.builder().title("Sem autor").isbn("004").build();
+        List<BookImportRow> rows = Arrays.asList(
+                row(1, "001"), row(2, "001"),
+                row(3, "002"), BookImportRow.of(4, incomplete),
+                BookImportRow.error(5, "expected 3 columns but found 2"));
+        Mockito.when(repository.findExistingIsbns(Mockito.anyCollection())).thenReturn(Collections.emptyList());
+        Mockito.when(repository.findExistingIsbns(Collections.singleton("002"))).thenReturn(Collections.singletonList("002"));
+
+        BookImportResult result = service.importBooks(rows.iterator());
+
+        assertThat(result.getImported()).isEqualTo(1);
+        assertThat(result.getFailed()).isEqualTo(4);
+        assertThat(result.getErrors())
+                .extracting(BookImportResult.RowError::getRow, BookImportResult.RowError::getMessage)
+                .containsExactlyInAnyOrder(
+                        tuple(2L, "isbn repetido no arquivo"),
+                        tuple(3L, "isbn já cadastrado"),
+                        tuple(4L, "title, autor e isbn são obrigatórios"),
+                        tuple(5L, "expected 3 columns but found 2"));
+    }
+
+    @Test
+    @DisplayName("Deve refazer o lote linha a linha quando o banco rejeitar um isbn")
+    public void retryRowByRowOnConstraintViolationTest(){
+        Mockito.when(repository.findExistingIsbns(Mockito.anyCollection())).thenReturn(Collections.emptyList());
+        Mockito.when(repository.saveAll(Mockito.anyList())).thenThrow(new DataIntegrityViolationException("uk_book_isbn"));
+        Mockito.when(repository.save(Mockito.any(Book.class))).thenAnswer(invocation -> {
+            Book book = invocation.getArgument(0);
+            if ("002".equals(book.getIsbn())) {
+                throw new DataIntegrityViolationException("uk_book_isbn");
+            }
+            book.setId(ids.incrementAndGet());
+            return book;
+        });
+
+        BookImportResult result = service.importBooks(Arrays.asList(row(1, "001"), row(2, "002")).iterator());
+
+        assertThat(result.getImported()).isEqualTo(1);
+        assertThat(result.getErrors()).extracting(BookImportResult.RowError::getIsbn).containsExactly("002");
+        assertThat(isbnIndex.contains("001")).isTrue();
+        assertThat(isbnIndex.contains("002")).isFalse();
+    }
+
+    private static BookImportRow row(long row, String isbn){
+        return BookImportRow.of(row, Book.builder().title("As aventuras").autor("Fulano").isbn(isbn).build());
+    }
+}
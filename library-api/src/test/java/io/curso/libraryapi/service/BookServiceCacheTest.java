@@ -0,0 +1,98 @@
+package io.curso.libraryapi.service;
+
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.BookRepository;
+import io.curso.libraryapi.config.CacheConfig;
+import io.curso.libraryapi.service.imp.BookServiceImp;
+import io.curso.libraryapi.service.index.BookSearchIndex;
+import io.curso.libraryapi.service.index.IsbnIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.autoconfigure.cache.CacheAutoConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@ContextConfiguration(classes = {CacheConfig.class, BookServiceImp.class, IsbnIndex.class, BookSearchIndex.class})
+@ImportAutoConfiguration({AopAutoConfiguration.class, CacheAutoConfiguration.class})
+@TestPropertySource(properties = {
+        "spring.cache.type=caffeine",
+        "spring.cache.cache-names=books,booksByIsbn",
+        "spring.cache.caffeine.spec=maximumSize=100,recordStats"
+})
+public class BookServiceCacheTest {
+
+    @Autowired
+    BookService service;
+    @Autowired
+    CacheManager cacheManager;
+    @MockBean
+    BookRepository repository;
+
+    @BeforeEach
+    void setUp(){
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+    }
+
+    @Test
+    @DisplayName("Deve obter o livro do cache a partir da segunda consulta por id")
+    public void getByIdReadThroughTest(){
+        Book book = Book.builder().id(1L).title("As aventuras").autor("Fulano").isbn("123").build();
+        Mockito.when(repository.findDetailsById(1L)).thenReturn(Optional.of(book));
+
+        service.getById(1L);
+        Optional<Book> cached = service.getById(1L);
+
+        assertThat(cached).contains(book);
+        Mockito.verify(repository, Mockito.times(1)).findDetailsById(1L);
+    }
+
+    @Test
+    @DisplayName("Nao deve guardar no cache um livro nao encontrado")
+    public void notCacheMissingBookTest(){
+        Mockito.when(repository.findDetailsById(1L)).thenReturn(Optional.empty());
+
+        service.getById(1L);
+        service.getById(1L);
+
+        Mockito.verify(repository, Mockito.times(2)).findDetailsById(1L);
+    }
+
+    @Test
+    @DisplayName("Deve invalidar o cache ao atualizar e ao deletar um livro")
+    public void evictOnUpdateAndDeleteTest(){
+        Book book = Book.builder().id(1L).title("As aventuras").autor("Fulano").isbn("123").build();
+        Mockito.when(repository.findDetailsById(1L)).thenReturn(Optional.of(book));
+        Mockito.when(repository.findDetailsByIsbn("123")).thenReturn(Optional.of(book));
+        Mockito.when(repository.updateDetails(1L, "As aventuras", "Fulano")).thenReturn(1);
+
+        service.getById(1L);
+        service.getBookByIsbn("123");
+        service.update(book);
+
+        assertThat(cacheManager.getCache(CacheConfig.BOOKS).get(1L)).isNull();
+        assertThat(cacheManager.getCache(CacheConfig.BOOKS_BY_ISBN).get("123")).isNull();
+
+        service.getById(1L);
+        service.getBookByIsbn("123");
+        service.delete(book);
+
+        assertThat(cacheManager.getCache(CacheConfig.BOOKS).get(1L)).isNull();
+        assertThat(cacheManager.getCache(CacheConfig.BOOKS_BY_ISBN).get("123")).isNull();
+    }
+}
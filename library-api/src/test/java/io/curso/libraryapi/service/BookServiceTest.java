@@ -1,9 +1,12 @@
 package io.curso.libraryapi.service;
 
 import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.BookSearchEntry;
 import io.curso.libraryapi.api.repository.BookRepository;
 import io.curso.libraryapi.service.imp.BookServiceImp;
 import io.curso.libraryapi.exception.BusinessException;
+import io.curso.libraryapi.service.index.BookSearchIndex;
+import io.curso.libraryapi.service.index.IsbnIndex;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -11,6 +14,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -31,10 +35,14 @@ public class BookServiceTest {
     BookService service;
     @MockBean
     BookRepository repository;
+    IsbnIndex isbnIndex;
+    BookSearchIndex searchIndex;
 
     @BeforeEach
     void setUp(){
-        this.service = new BookServiceImp(repository);
+        this.isbnIndex = new IsbnIndex();
+        this.searchIndex = new BookSearchIndex();
+        this.service = new BookServiceImp(repository, isbnIndex, searchIndex);
     }
 
     @Test
@@ -51,6 +59,8 @@ public class BookServiceTest {
         assertThat(save.getIsbn()).isEqualTo("123");
         assertThat(save.getTitle()).isEqualTo("As aventuras");
         assertThat(save.getAutor()).isEqualTo("Fulano");
+        assertThat(isbnIndex.getId("123")).contains(11L);
+        Mockito.verify(repository, Mockito.never()).existsByIsbn(Mockito.anyString());
     }
 
     private static Book createValidBook() {
@@ -61,18 +71,31 @@ public class BookServiceTest {
     @DisplayName("Deve lançar erro de negocio ao tentar salvar um livro com isbn duplicado")
     public void shouldNotSaveABooWithDuplicatedISBN(){
         Book book = createValidBook();
+        isbnIndex.put("123", 1L);
         Mockito.when(repository.existsByIsbn(Mockito.anyString())).thenReturn(true);
         Assertions.assertThrows(BusinessException.class, ()-> service.save(book)).getMessage().equalsIgnoreCase("isbn já cadastrado");
         Mockito.verify(repository, Mockito.never()).save(book);
     }
 
+    @Test
+    @DisplayName("Deve lançar erro de negocio quando o banco rejeitar o isbn duplicado")
+    public void shouldNotSaveABookWhenDatabaseRejectsDuplicatedIsbn(){
+        Book book = createValidBook();
+        Mockito.when(repository.save(book)).thenThrow(new DataIntegrityViolationException("uk_book_isbn"));
+
+        Throwable exception = org.assertj.core.api.Assertions.catchThrowable(() -> service.save(book));
+
+        assertThat(exception).isInstanceOf(BusinessException.class).hasMessage("isbn já cadastrado");
+        assertThat(isbnIndex.contains("123")).isFalse();
+    }
+
     @Test
     @DisplayName("Deve obter um livro por id")
     public void getByIdTest(){
         Long id = 1l;
         Book book = createValidBook();
         book.setId(id);
-        Mockito.when(repository.findById(id)).thenReturn(Optional.of(book));
+        Mockito.when(repository.findDetailsById(id)).thenReturn(Optional.of(book));
 
         Optional<Book> foundBook = service.getById(id);
 
@@ -86,7 +109,7 @@ public class BookServiceTest {
     @DisplayName("Deve retornar vazio ao obter um livro por id quando ele não existir na base")
     public void bookNotFoundByIdTest(){
         Long id = 1l;
-        Mockito.when(repository.findById(id)).thenReturn(Optional.empty());
+        Mockito.when(repository.findDetailsById(id)).thenReturn(Optional.empty());
 
         Optional<Book> book = service.getById(id);
 
@@ -98,16 +121,26 @@ public class BookServiceTest {
     @DisplayName("Deve atualizar um livro")
     public void updateBookTest(){
         Long id = 1L;
-        Book bookUpdating = Book.builder().id(id).build();
         Book bookUpdate = createValidBook();
         bookUpdate.setId(id);
-//        Mockito.when(repository.existsById(Mockito.anyLong())).thenReturn(true);
-        Mockito.when(repository.save(bookUpdating)).thenReturn(bookUpdate);
-        Book update = service.update(bookUpdating);
+        Mockito.when(repository.updateDetails(id, "As aventuras", "Fulano")).thenReturn(1);
+        Book update = service.update(bookUpdate);
         Assertions.assertEquals(update.getId(), bookUpdate.getId());
         Assertions.assertEquals(update.getTitle(), bookUpdate.getTitle());
         Assertions.assertEquals(update.getAutor(), bookUpdate.getAutor());
         Assertions.assertEquals(update.getIsbn(), bookUpdate.getIsbn());
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any(Book.class));
+    }
+
+    @Test
+    @DisplayName("Deve retornar nulo ao atualizar um livro que nao existe mais na base")
+    public void updateDeletedBookTest(){
+        Book book = createValidBook();
+        book.setId(1L);
+        Mockito.when(repository.updateDetails(1L, "As aventuras", "Fulano")).thenReturn(0);
+
+        Assertions.assertNull(service.update(book));
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any(Book.class));
     }
 
     @Test
@@ -142,7 +175,7 @@ public class BookServiceTest {
         List<Book> lista = Arrays.asList(book);
         PageRequest pageRequest = PageRequest.of(0, 10);
         Page<Book> page = new PageImpl<>(lista,pageRequest , 1);
-        Mockito.when(repository.findAll(Mockito.any(Example.class), Mockito.any(PageRequest.class))).thenReturn(page);
+        Mockito.when(repository.findDetails(Mockito.any(Example.class), Mockito.any(PageRequest.class))).thenReturn(page);
 
         Page<Book> result = service.find(book, pageRequest);
 
@@ -153,11 +186,76 @@ public class BookServiceTest {
 
 
     }
+    @Test
+    @DisplayName("Deve filtrar livros pelo indice de busca sem consultar o banco com like")
+    public void findBookByIndexTest(){
+        Book first = Book.builder().id(1L).title("As Aventuras de Pi").autor("Yann Martel").isbn("001").build();
+        Book second = Book.builder().id(2L).title("Aventuras na Terra").autor("Fulano").isbn("002").build();
+        Book third = Book.builder().id(3L).title("As aventuras").autor("Yann Martel").isbn("003").build();
+        searchIndex.load(Arrays.asList(first, second, third));
+        Mockito.when(repository.findDetailsByIds(Arrays.asList(3L))).thenReturn(Arrays.asList(third));
+
+        PageRequest pageRequest = PageRequest.of(1, 1);
+        Page<Book> result = service.find(Book.builder().title("AVENTURAS").autor("martel").build(), pageRequest);
+
+        assertThat(result.getTotalElements()).isEqualTo(2);
+        assertThat(result.getContent()).containsExactly(third);
+        Mockito.verify(repository, Mockito.never()).findDetails(Mockito.any(Example.class), Mockito.any(PageRequest.class));
+    }
+
+    @Test
+    @DisplayName("Deve manter o indice de busca atualizado ao salvar, atualizar e deletar")
+    public void searchIndexFollowsChangesTest(){
+        searchIndex.load(Arrays.asList());
+        Book book = Book.builder().id(1L).title("As aventuras").autor("Fulano").isbn("123").build();
+        Mockito.when(repository.save(Mockito.any(Book.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        Mockito.when(repository.updateDetails(Mockito.eq(1L), Mockito.any(), Mockito.any())).thenReturn(1);
+
+        service.save(book);
+        assertThat(searchIndex.searchAfter(Book.builder().title("aventura").build(), null, 10)).containsExactly(1L);
+
+        book.setTitle("Outro titulo");
+        service.update(book);
+        assertThat(searchIndex.searchAfter(Book.builder().title("aventura").build(), null, 10)).isEmpty();
+        assertThat(searchIndex.searchAfter(Book.builder().title("titulo").build(), null, 10)).containsExactly(1L);
+
+        service.delete(book);
+        assertThat(searchIndex.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve recarregar no indice de busca os livros alterados fora desta instancia")
+    public void reloadSearchIndexTest(){
+        searchIndex.load(Arrays.asList(
+                Book.builder().id(1L).title("Aventura antiga").isbn("1").build(),
+                Book.builder().id(2L).title("Aventura removida").isbn("2").build()));
+        Mockito.when(repository.findAllSearchEntries()).thenAnswer(invocation -> {
+            // gravado por esta instancia enquanto a leitura do banco acontecia
+            searchIndex.put(Book.builder().id(4L).title("Aventura recente").isbn("4").build());
+            return Arrays.asList(searchEntry(1L, "Aventura nova", "1"), searchEntry(3L, "Aventura externa", "3"));
+        });
+
+        service.reloadSearchIndex();
+
+        assertThat(searchIndex.searchAfter(Book.builder().title("aventura").build(), null, 10)).containsExactly(1L, 3L, 4L);
+        assertThat(searchIndex.searchAfter(Book.builder().title("nova").build(), null, 10)).containsExactly(1L);
+        assertThat(searchIndex.searchAfter(Book.builder().title("antiga").build(), null, 10)).isEmpty();
+    }
+
+    private static BookSearchEntry searchEntry(Long id, String title, String isbn) {
+        return new BookSearchEntry() {
+            public Long getId() { return id; }
+            public String getTitle() { return title; }
+            public String getAutor() { return null; }
+            public String getIsbn() { return isbn; }
+        };
+    }
+
     @Test
     @DisplayName("Deve opber um livro pelo isbn")
     public void getBookByIsbnTest(){
         String isbn = "1230";
-        Mockito.when(repository.findByIsbn(isbn)).thenReturn(Optional.of(Book.builder().id(1L).isbn(isbn).build()));
+        Mockito.when(repository.findDetailsByIsbn(isbn)).thenReturn(Optional.of(Book.builder().id(1L).isbn(isbn).build()));
         Optional<Book> book = service.getBookByIsbn(isbn);
 
 
@@ -165,7 +263,19 @@ public class BookServiceTest {
         Assertions.assertEquals(1L,book.get().getId());
         Assertions.assertEquals(isbn,book.get().getIsbn());
 
-        Mockito.verify(repository, Mockito.times(1)).findByIsbn(isbn);
+        Mockito.verify(repository, Mockito.times(1)).findDetailsByIsbn(isbn);
+    }
+
+    @Test
+    @DisplayName("Deve remover o isbn do indice ao deletar um livro")
+    public void deleteBookRemovesIsbnFromIndexTest(){
+        Book book = createValidBook();
+        book.setId(1L);
+        isbnIndex.put(book.getIsbn(), 1L);
+
+        service.delete(book);
+
+        assertThat(isbnIndex.contains(book.getIsbn())).isFalse();
     }
 
 }
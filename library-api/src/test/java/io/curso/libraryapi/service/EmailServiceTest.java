@@ -0,0 +1,136 @@
+package io.curso.libraryapi.service;
+
+import io.curso.libraryapi.service.imp.EmailServiceImpl;
+import io.curso.libraryapi.service.mail.FakeJavaMailSender;
+import io.curso.libraryapi.service.mail.TokenBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class EmailServiceTest {
+
+    SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        this.meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    @DisplayName("Deve enviar uma mensagem por destinatario agrupadas em lotes")
+    public void sendOneMessagePerRecipientTest() {
+        FakeJavaMailSender fakeSender = new FakeJavaMailSender(0);
+        EmailService service = createService(fakeSender, 2);
+        List<String> mails = Arrays.asList("a@email.com", "b@email.com", "c@email.com");
+
+        MailDispatchResult result = service.sendMails("mensagem", mails);
+
+        Assertions.assertEquals(2, fakeSender.getSendCalls());
+        List<String> recipients = fakeSender.getSentMessages().stream()
+                .map(message -> {
+                    Assertions.assertEquals(1, message.getTo().length);
+                    return message.getTo()[0];
+                })
+                .collect(Collectors.toList());
+        Assertions.assertEquals(mails, recipients);
+        Assertions.assertEquals(3, result.getSent());
+        Assertions.assertTrue(result.getFailedRecipients().isEmpty());
+        Assertions.assertEquals(3.0, meterRegistry.counter("mail.sent").count());
+    }
+
+    @Test
+    @DisplayName("Deve reenviar apenas as mensagens que falharam")
+    public void retryOnlyFailedMessagesTest() {
+        List<Integer> batchSizes = new ArrayList<>();
+        FakeJavaMailSender failingSender = new FakeJavaMailSender(0) {
+            @Override
+            public void send(SimpleMailMessage... simpleMessages) {
+                batchSizes.add(simpleMessages.length);
+                if (batchSizes.size() == 1) {
+                    throw new MailSendException(Collections.singletonMap(simpleMessages[1], new RuntimeException("timeout")));
+                }
+                super.send(simpleMessages);
+            }
+        };
+        EmailService service = createService(failingSender, 10);
+
+        MailDispatchResult result = service.sendMails("mensagem", Arrays.asList("a@email.com", "b@email.com"));
+
+        Assertions.assertEquals(Arrays.asList(2, 1), batchSizes);
+        Assertions.assertEquals("b@email.com", failingSender.getSentMessages().get(0).getTo()[0]);
+        Assertions.assertEquals(2, result.getSent());
+        Assertions.assertEquals(1.0, meterRegistry.counter("mail.retries").count());
+    }
+
+    @Test
+    @DisplayName("Deve devolver os destinatarios que falharam apos esgotar as tentativas")
+    public void giveUpAfterMaxAttemptsTest() {
+        AtomicInteger attempts = new AtomicInteger();
+        FakeJavaMailSender unavailableSender = new FakeJavaMailSender(0) {
+            @Override
+            public void send(SimpleMailMessage... simpleMessages) {
+                attempts.incrementAndGet();
+                throw new MailSendException("smtp fora do ar");
+            }
+        };
+        EmailService service = createService(unavailableSender, 10);
+
+        MailDispatchResult result = service.sendMails("mensagem", Arrays.asList("a@email.com"));
+
+        Assertions.assertEquals(3, attempts.get());
+        Assertions.assertEquals(0, result.getSent());
+        Assertions.assertEquals(Arrays.asList("a@email.com"), result.getFailedRecipients());
+        Assertions.assertEquals(1.0, meterRegistry.counter("mail.failed").count());
+    }
+
+    @Test
+    @DisplayName("Deve enviar os lotes em paralelo pelo pool de envio")
+    public void sendBatchesInParallelTest() {
+        FakeJavaMailSender fakeSender = new FakeJavaMailSender(0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        EmailServiceImpl service = new EmailServiceImpl(fakeSender, executor, new TokenBucket(0, 0), meterRegistry);
+        configure(service, 5);
+        List<String> mails = Arrays.asList("a@email.com", "b@email.com", "c@email.com", "d@email.com",
+                "e@email.com", "f@email.com", "g@email.com", "h@email.com", "i@email.com", "j@email.com", "a@email.com");
+
+        MailDispatchResult result = service.sendMails("mensagem", mails);
+        executor.shutdown();
+
+        Assertions.assertEquals(10, result.getSent());
+        Assertions.assertEquals(2, fakeSender.getSendCalls());
+        Assertions.assertEquals(10, fakeSender.getSentMessages().size());
+    }
+
+    private EmailService createService(JavaMailSender sender, int batchSize) {
+        EmailServiceImpl service = new EmailServiceImpl(sender, Runnable::run, new TokenBucket(0, 0), meterRegistry);
+        configure(service, batchSize);
+        return service;
+    }
+
+    private static void configure(EmailServiceImpl service, int batchSize) {
+        ReflectionTestUtils.setField(service, "remetent", "biblioteca@email.com");
+        ReflectionTestUtils.setField(service, "batchSize", batchSize);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+        ReflectionTestUtils.setField(service, "retryBackoffMillis", 1L);
+    }
+}
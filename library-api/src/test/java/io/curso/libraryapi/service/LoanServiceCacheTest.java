@@ -0,0 +1,92 @@
+package io.curso.libraryapi.service;
+
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.api.repository.LoanRepository;
+import io.curso.libraryapi.config.CacheConfig;
+import io.curso.libraryapi.service.imp.BookLocks;
+import io.curso.libraryapi.service.imp.LoanServiceImpl;
+import io.curso.libraryapi.service.index.LoanCounters;
+import io.curso.libraryapi.service.index.OpenLoanIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.autoconfigure.cache.CacheAutoConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@ContextConfiguration(classes = {CacheConfig.class, LoanServiceImpl.class, BookLocks.class, OpenLoanIndex.class, LoanCounters.class})
+@ImportAutoConfiguration({AopAutoConfiguration.class, CacheAutoConfiguration.class})
+@TestPropertySource(properties = {
+        "spring.cache.type=caffeine",
+        "spring.cache.cache-names=openLoansByCustomer",
+        "spring.cache.caffeine.spec=maximumSize=100,recordStats"
+})
+public class LoanServiceCacheTest {
+
+    @Autowired
+    LoanService service;
+    @Autowired
+    CacheManager cacheManager;
+    @MockBean
+    LoanRepository repository;
+
+    @BeforeEach
+    void setUp(){
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+    }
+
+    @Test
+    @DisplayName("Deve servir os emprestimos em aberto do cliente pelo cache e invalidar ao emprestar e devolver")
+    public void openLoansByCustomerCacheTest(){
+        Loan loan = Loan.builder().id(1L).customer("Fulano").book(Book.builder().id(1L).isbn("123").build()).loanDate(LocalDate.now()).build();
+        Mockito.when(repository.findOpenByCustomer("Fulano")).thenReturn(Arrays.asList(loan));
+        Mockito.when(repository.save(Mockito.any(Loan.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        service.getOpenLoansByCustomer("Fulano");
+        List<Loan> cached = service.getOpenLoansByCustomer("Fulano");
+
+        assertThat(cached).containsExactly(loan);
+        Mockito.verify(repository, Mockito.times(1)).findOpenByCustomer("Fulano");
+
+        loan.setReturned(true);
+        service.update(loan);
+        assertThat(cacheManager.getCache(CacheConfig.OPEN_LOANS_BY_CUSTOMER).get("Fulano")).isNull();
+
+        service.getOpenLoansByCustomer("Fulano");
+        service.returnLoans(Collections.singletonList(2L), null);
+        assertThat(cacheManager.getCache(CacheConfig.OPEN_LOANS_BY_CUSTOMER).get("Fulano")).isNull();
+    }
+
+    @Test
+    @DisplayName("Deve invalidar o cliente anterior quando o emprestimo mudar de cliente")
+    public void updateCustomerEvictsPreviousCustomerTest(){
+        Loan loan = Loan.builder().id(1L).customer("Fulano").book(Book.builder().id(1L).isbn("123").build()).loanDate(LocalDate.now()).build();
+        Mockito.when(repository.findOpenByCustomer("Fulano")).thenReturn(Arrays.asList(loan));
+        Mockito.when(repository.save(Mockito.any(Loan.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        service.getOpenLoansByCustomer("Fulano");
+
+        Loan changed = Loan.builder().id(1L).customer("Ciclano").book(loan.getBook()).loanDate(loan.getLoanDate()).build();
+        service.update(changed);
+
+        assertThat(cacheManager.getCache(CacheConfig.OPEN_LOANS_BY_CUSTOMER).get("Fulano")).isNull();
+    }
+}
@@ -2,10 +2,17 @@ package io.curso.libraryapi.service;
 
 import io.curso.libraryapi.api.dto.LoanFilterDTO;
 import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.service.imp.BookLocks;
 import io.curso.libraryapi.service.imp.LoanServiceImpl;
+import io.curso.libraryapi.service.index.LoanCounters;
+import io.curso.libraryapi.service.index.OpenLoanIndex;
 import io.curso.libraryapi.exception.BusinessException;
 import io.curso.libraryapi.api.repository.Loan;
 import io.curso.libraryapi.api.repository.LoanRepository;
+import io.curso.libraryapi.api.repository.LoanReturnEntry;
+import io.curso.libraryapi.api.repository.IsbnCount;
+import io.curso.libraryapi.api.repository.LoanDateCount;
+import io.curso.libraryapi.api.repository.OpenLoanEntry;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -13,17 +20,34 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
@@ -35,9 +59,15 @@ public class LoanServiceTest {
     @MockBean
     private LoanService service;
 
+    OpenLoanIndex openLoanIndex;
+
+    LoanCounters loanCounters;
+
     @BeforeEach
     void setUp() {
-        this.service = new LoanServiceImpl(repository);
+        this.openLoanIndex = new OpenLoanIndex();
+        this.loanCounters = new LoanCounters(30, 3);
+        this.service = new LoanServiceImpl(repository, new BookLocks(16), openLoanIndex, loanCounters);
     }
 
     @Test
@@ -67,7 +97,53 @@ public class LoanServiceTest {
         Assertions.assertEquals(savedLoan.getBook().getId(), loan.getBook().getId());
         Assertions.assertEquals(savedLoan.getCustomer(), loan.getCustomer());
         Assertions.assertEquals(savedLoan.getLoanDate(), loan.getLoanDate());
+        Assertions.assertEquals(true, openLoanIndex.isLoaned(book.getId()));
+        Mockito.verify(repository, Mockito.never()).existsByBookAndNotReturned(book);
+        Mockito.verify(repository, Mockito.never()).findOpenLoanIdsByBook(Mockito.anyLong(), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Deve recusar pela constraint do banco quando o indice nao conhece o emprestimo do livro")
+    public void loanedBookOnlyInDatabaseSaveTest() {
+
+        Book book = Book.builder().id(1L).build();
+        Loan savingLoan = Loan.builder()
+                .book(book)
+                .customer("fulano")
+                .loanDate(LocalDate.now())
+                .build();
+
+        Mockito.when(repository.save(savingLoan)).thenThrow(new DataIntegrityViolationException("uk_loan_open_book"));
+
+        Throwable exception = org.assertj.core.api.Assertions.catchThrowable(() -> service.save(savingLoan));
+
+        org.assertj.core.api.Assertions.assertThat(exception)
+                .isInstanceOf(BusinessException.class)
+                .hasMessage("Book already loaned");
+        Assertions.assertEquals(true, openLoanIndex.isLoaned(book.getId()));
+        Assertions.assertEquals(0, openLoanIndex.loansSize());
+    }
+
+    @Test
+    @DisplayName("Deve emprestar o livro quando o indice estiver desatualizado e o banco nao tiver emprestimo aberto")
+    public void staleIndexSaveTest() {
+
+        Book book = Book.builder().id(1L).build();
+        Loan savingLoan = Loan.builder()
+                .book(book)
+                .customer("fulano")
+                .loanDate(LocalDate.now())
+                .build();
+
+        openLoanIndex.markLoaned(book.getId());
+        Mockito.when(repository.findOpenLoanIdsByBook(Mockito.eq(book.getId()), Mockito.any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+        Mockito.when(repository.save(savingLoan)).thenReturn(Loan.builder().id(2L).book(book).loanDate(LocalDate.now()).build());
+
+        Loan loan = service.save(savingLoan);
 
+        Assertions.assertEquals(2L, loan.getId());
+        Assertions.assertEquals(true, openLoanIndex.isLoaned(book.getId()));
     }
 
 
@@ -83,7 +159,9 @@ public class LoanServiceTest {
                 .loanDate(LocalDate.now())
                 .build();
 
-        Mockito.when(repository.existsByBookAndNotReturned(book)).thenReturn(true);
+        openLoanIndex.markLoaned(book.getId());
+        Mockito.when(repository.findOpenLoanIdsByBook(Mockito.eq(book.getId()), Mockito.any(Pageable.class)))
+                .thenReturn(Collections.singletonList(1L));
 
         Throwable exception = org.assertj.core.api.Assertions.catchThrowable(() -> service.save(savingLoan));
 
@@ -92,7 +170,52 @@ public class LoanServiceTest {
                 .hasMessage("Book already loaned");
 
         Mockito.verify(repository, Mockito.never()).save(savingLoan);
+        Mockito.verify(repository, Mockito.never()).existsByBookAndNotReturned(book);
+    }
+    @Test
+    @DisplayName("Deve emprestar o livro uma única vez quando varias requisições concorrerem pelo mesmo isbn")
+    public void concurrentLoansForSameBookTest() throws Exception {
+        int threads = 16;
+        Book book = Book.builder().id(1L).isbn("123").build();
+        AtomicInteger openLoans = new AtomicInteger();
+
+        Mockito.when(repository.save(Mockito.any(Loan.class))).thenAnswer(invocation -> {
+            Thread.sleep(5);
+            openLoans.incrementAndGet();
+            return invocation.getArgument(0);
+        });
+        Mockito.when(repository.findOpenLoanIdsByBook(Mockito.eq(book.getId()), Mockito.any(Pageable.class)))
+                .thenAnswer(invocation -> openLoans.get() > 0 ? Collections.singletonList(1L) : Collections.emptyList());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            String customer = "cliente " + i;
+            results.add(executor.submit(() -> {
+                start.await();
+                try {
+                    service.save(Loan.builder().book(book).customer(customer).loanDate(LocalDate.now()).build());
+                    return true;
+                } catch (BusinessException e) {
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+
+        int loaned = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get(10, TimeUnit.SECONDS)) {
+                loaned++;
+            }
+        }
+        executor.shutdown();
+
+        Assertions.assertEquals(1, loaned);
+        Assertions.assertEquals(1, openLoans.get());
     }
+
     @Test
     @DisplayName("Deve obter as ubfirnações de um emprestimo pelo id")
     public void getLoanDetaisTest(){
@@ -122,6 +245,22 @@ public class LoanServiceTest {
         Assertions.assertEquals(true, updatedLoan.getReturned());
     }
 
+    @Test
+    @DisplayName("Deve liberar o livro para novo emprestimo ao devolver")
+    public void returnLoanReleasesBookTest(){
+        Loan loan = createLoan();
+        loan.setId(1L);
+        openLoanIndex.markLoaned(loan.getBook().getId());
+        loan.setReturned(true);
+        Mockito.when(repository.save(Mockito.any(Loan.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        service.update(loan);
+
+        Assertions.assertEquals(false, openLoanIndex.isLoaned(loan.getBook().getId()));
+        Assertions.assertDoesNotThrow(() -> service.save(createLoan()));
+        Assertions.assertEquals(true, openLoanIndex.isLoaned(loan.getBook().getId()));
+    }
+
     @Test
     @DisplayName("Deve filtrar emprestimos pelas propriedades")
     public void findLoanTest(){
@@ -132,8 +271,8 @@ public class LoanServiceTest {
         PageRequest pageRequest = PageRequest.of(0, 10);
 
         List<Loan> lista = Arrays.asList(loan);
-        Page<Loan> page = new PageImpl<>(lista,pageRequest , lista.size());
-        Mockito.when(repository.findByBookIsbnOrCustomer(Mockito.any(String.class),Mockito.any(String.class), Mockito.any(PageRequest.class))).thenReturn(page);
+        Mockito.when(repository.findIdsByBookIsbnOrCustomer("321", "Fulano", pageRequest)).thenReturn(Arrays.asList(1L));
+        Mockito.when(repository.findWithBookByIds(Arrays.asList(1L))).thenReturn(lista);
 
         Page<Loan> result = service.find(filterDTO, pageRequest);
 
@@ -145,6 +284,281 @@ public class LoanServiceTest {
 
     }
 
+    @Test
+    @DisplayName("Deve consultar apenas pelo filtro informado")
+    public void findLoanBySingleFilterTest(){
+        PageRequest pageRequest = PageRequest.of(0, 10);
+        Page<Loan> page = new PageImpl<>(Arrays.asList(createLoan()), pageRequest, 1);
+        Mockito.when(repository.findByBookIsbn("321", pageRequest)).thenReturn(page);
+        Mockito.when(repository.findByCustomer("Fulano", pageRequest)).thenReturn(page);
+
+        assertThat(service.find(LoanFilterDTO.builder().isbn("321").build(), pageRequest)).isSameAs(page);
+        assertThat(service.find(LoanFilterDTO.builder().customer("Fulano").build(), pageRequest)).isSameAs(page);
+        assertThat(service.find(new LoanFilterDTO(), pageRequest).getContent()).isEmpty();
+
+        Mockito.verify(repository, Mockito.never()).findIdsByBookIsbnOrCustomer(Mockito.any(), Mockito.any(), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Deve manter a ordem pedida ao filtrar por isbn e cliente e recusar propriedades fora da lista")
+    public void findLoanSortedByIsbnAndCustomerTest(){
+        LoanFilterDTO filterDTO = LoanFilterDTO.builder().isbn("321").customer("Fulano").build();
+        PageRequest byDate = PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "loanDate"));
+        Mockito.when(repository.findIdsByBookIsbnOrCustomer("321", "Fulano", byDate)).thenReturn(Arrays.asList(2L, 1L));
+        Mockito.when(repository.findWithBookByIds(Arrays.asList(2L, 1L)))
+                .thenReturn(Arrays.asList(Loan.builder().id(1L).build(), Loan.builder().id(2L).build()));
+
+        assertThat(service.find(filterDTO, byDate).getContent()).extracting(Loan::getId).containsExactly(2L, 1L);
+
+        Throwable exception = org.assertj.core.api.Assertions.catchThrowable(
+                () -> service.find(filterDTO, PageRequest.of(0, 10, Sort.by("book"))));
+        org.assertj.core.api.Assertions.assertThat(exception).isInstanceOf(BusinessException.class);
+        Mockito.verify(repository, Mockito.times(1)).findIdsByBookIsbnOrCustomer(Mockito.any(), Mockito.any(), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Deve manter as estatisticas dos emprestimos a cada emprestimo e devolucao")
+    public void statisticsFollowLoansTest(){
+        openLoanIndex.loadLoans(Collections.emptyList());
+        LocalDate today = LocalDate.now();
+        Mockito.when(repository.save(Mockito.any(Loan.class))).thenAnswer(invocation -> {
+            Loan loan = invocation.getArgument(0);
+            if (loan.getId() == null) {
+                loan.setId(loan.getBook().getId());
+            }
+            return loan;
+        });
+        service.save(loanOf(1L, "111", today.minusDays(10)));
+        service.save(loanOf(2L, "222", today));
+        service.save(loanOf(3L, "222", today));
+        service.save(loanOf(4L, "333", today));
+        service.save(loanOf(5L, "444", today));
+
+        Loan returned = loanOf(1L, "111", today.minusDays(10));
+        returned.setId(1L);
+        returned.setReturned(true);
+        service.update(returned);
+        service.update(returned);
+
+        LoanStatistics statistics = service.getStatistics();
+
+        assertThat(statistics.getOpenLoans()).isEqualTo(4);
+        assertThat(statistics.getOverdueLoans()).isEqualTo(0);
+        assertThat(statistics.getLoansPerDay()).containsEntry(today, 4L).containsEntry(today.minusDays(10), 1L);
+        // sketch com 3 posicoes: o "444" entra no lugar de um isbn com 1 emprestimo e herda a contagem dele
+        assertThat(statistics.getMostBorrowed()).hasSize(3);
+        assertThat(statistics.getMostBorrowed()).extracting(LoanStatistics.PopularBook::getIsbn, LoanStatistics.PopularBook::getLoans)
+                .startsWith(tuple("222", 2L), tuple("444", 2L));
+    }
+
+    @Test
+    @DisplayName("Deve reconciliar as estatisticas com as contagens do banco")
+    public void reconcileStatisticsTest(){
+        LocalDate lateDate = LocalDate.now().minusDays(6);
+        loanCounters.loanOpened(LocalDate.now(), "999");
+        Mockito.when(repository.countOpenLoansByDate()).thenReturn(Arrays.asList(dateCount(lateDate, 2), dateCount(LocalDate.now(), 1)));
+        Mockito.when(repository.countLoansByDateSince(Mockito.any(LocalDate.class))).thenReturn(Arrays.asList(dateCount(lateDate, 5)));
+        Mockito.when(repository.countLoansByIsbn(Mockito.any(Pageable.class))).thenReturn(Arrays.asList(isbnCount("123", 7), isbnCount("321", 3)));
+
+        service.reconcileStatistics();
+        LoanStatistics statistics = service.getStatistics();
+
+        assertThat(statistics.getOpenLoans()).isEqualTo(3);
+        assertThat(statistics.getOverdueLoans()).isEqualTo(2);
+        assertThat(statistics.getLoansPerDay()).containsOnlyKeys(lateDate);
+        assertThat(statistics.getMostBorrowed()).extracting(LoanStatistics.PopularBook::getIsbn, LoanStatistics.PopularBook::getLoans)
+                .containsExactly(tuple("123", 7L), tuple("321", 3L));
+    }
+
+    @Test
+    @DisplayName("Deve percorrer os emprestimos atrasados em blocos pela chave de paginação")
+    public void forEachLateLoansChunkTest(){
+        Loan first = createLoan();
+        first.setId(1L);
+        first.setLoanDate(LocalDate.now().minusDays(10));
+        Loan second = createLoan();
+        second.setId(2L);
+        second.setLoanDate(LocalDate.now().minusDays(9));
+        Loan third = createLoan();
+        third.setId(3L);
+        third.setLoanDate(LocalDate.now().minusDays(9));
+
+        Mockito.when(repository.findFirstLateLoans(Mockito.any(LocalDate.class), Mockito.any(PageRequest.class)))
+                .thenReturn(Arrays.asList(first, second));
+        Mockito.when(repository.findLateLoansAfter(Mockito.any(LocalDate.class), Mockito.eq(second.getLoanDate()), Mockito.eq(2L), Mockito.any(PageRequest.class)))
+                .thenReturn(Arrays.asList(third));
+
+        List<List<Loan>> chunks = new ArrayList<>();
+        service.forEachLateLoansChunk(2, chunks::add);
+
+        Assertions.assertEquals(2, chunks.size());
+        Assertions.assertEquals(Arrays.asList(first, second), chunks.get(0));
+        Assertions.assertEquals(Arrays.asList(third), chunks.get(1));
+        Mockito.verify(repository, Mockito.never()).findByLoanDateLessThanAndNotReturned(Mockito.any(LocalDate.class));
+    }
+
+    @Test
+    @DisplayName("Deve devolver emprestimos em lote por id e por isbn informando o resultado de cada um")
+    public void returnLoansTest(){
+        openLoanIndex.markLoaned(10L);
+        openLoanIndex.markLoaned(20L);
+        Mockito.when(repository.findReturnEntriesByIds(Arrays.asList(1L, 2L, 3L)))
+                .thenReturn(Arrays.asList(returnEntry(1L, 10L, "123", false), returnEntry(2L, 11L, "456", true)));
+        Mockito.when(repository.findOpenReturnEntriesByIsbns(Arrays.asList("789", "000")))
+                .thenReturn(Arrays.asList(returnEntry(4L, 20L, "789", false)));
+        Mockito.when(repository.findOpenLoanIds(Mockito.anyCollection())).thenReturn(Arrays.asList(1L, 4L));
+
+        List<LoanReturnResult> results = service.returnLoans(Arrays.asList(1L, 2L, 3L, 1L), Arrays.asList("789", "000"));
+
+        assertThat(results).extracting(LoanReturnResult::getLoanId, LoanReturnResult::getIsbn, LoanReturnResult::getStatus)
+                .containsExactly(
+                        tuple(1L, "123", LoanReturnResult.Status.RETURNED),
+                        tuple(2L, "456", LoanReturnResult.Status.ALREADY_RETURNED),
+                        tuple(3L, null, LoanReturnResult.Status.NOT_FOUND),
+                        tuple(4L, "789", LoanReturnResult.Status.RETURNED),
+                        tuple(null, "000", LoanReturnResult.Status.NOT_FOUND));
+        Mockito.verify(repository, Mockito.times(1)).markReturned(Mockito.anyCollection());
+        Mockito.verify(repository, Mockito.never()).save(Mockito.any(Loan.class));
+        Assertions.assertFalse(openLoanIndex.isLoaned(10L));
+        Assertions.assertFalse(openLoanIndex.isLoaned(20L));
+    }
+
+    @Test
+    @DisplayName("Deve liberar os livros dos blocos ja devolvidos quando um bloco seguinte falhar")
+    public void returnLoansChunkFailureTest(){
+        List<Long> ids = new ArrayList<>();
+        List<LoanReturnEntry> entries = new ArrayList<>();
+        for (long id = 1; id <= 1500; id++) {
+            ids.add(id);
+            entries.add(returnEntry(id, id, "isbn" + id, false));
+            openLoanIndex.markLoaned(id);
+        }
+        Mockito.when(repository.findReturnEntriesByIds(Mockito.anyCollection())).thenAnswer(invocation ->
+                entries.stream().filter(entry -> invocation.<Collection<Long>>getArgument(0).contains(entry.getId())).collect(Collectors.toList()));
+        Mockito.when(repository.findOpenLoanIds(Mockito.anyCollection())).thenAnswer(invocation -> new ArrayList<>(invocation.<Collection<Long>>getArgument(0)));
+        List<List<Long>> committed = new ArrayList<>();
+        Mockito.when(repository.markReturned(Mockito.anyCollection())).thenAnswer(invocation -> {
+            if (!committed.isEmpty()) {
+                throw new QueryTimeoutException("bloco recusado");
+            }
+            committed.add(new ArrayList<>(invocation.<Collection<Long>>getArgument(0)));
+            return committed.get(0).size();
+        });
+
+        Throwable exception = org.assertj.core.api.Assertions.catchThrowable(() -> service.returnLoans(ids, null));
+
+        assertThat(exception).isInstanceOf(QueryTimeoutException.class);
+        assertThat(committed.get(0)).hasSize(1000);
+        committed.get(0).forEach(id -> Assertions.assertFalse(openLoanIndex.isLoaned(id)));
+        assertThat(ids.stream().filter(openLoanIndex::isLoaned)).hasSize(500);
+    }
+
+    @Test
+    @DisplayName("Deve obter os emprestimos atrasados pelo indice sem varrer a tabela")
+    public void getAllLateLoansFromIndexTest(){
+        LocalDate today = LocalDate.now();
+        openLoanIndex.loadLoans(Arrays.asList(openLoanEntry(1L, today.minusDays(10)), openLoanEntry(2L, today.minusDays(5)),
+                openLoanEntry(3L, today.minusDays(1)), openLoanEntry(4L, today.minusDays(4))));
+        openLoanIndex.addLoan(5L, today.minusDays(20));
+        openLoanIndex.removeLoan(1L);
+        Loan late = createLoan();
+        late.setId(5L);
+        Mockito.when(repository.findOpenLoansByIds(Mockito.anyCollection())).thenReturn(Arrays.asList(late));
+
+        List<Loan> result = service.getAllLateLoans();
+
+        assertThat(result).containsExactly(late);
+        Mockito.verify(repository).findOpenLoansByIds(Arrays.asList(5L, 2L, 4L));
+        Mockito.verify(repository, Mockito.never()).findByLoanDateLessThanAndNotReturned(Mockito.any(LocalDate.class));
+    }
+
+    @Test
+    @DisplayName("Deve percorrer os emprestimos atrasados do indice em blocos do tamanho pedido")
+    public void forEachLateLoansChunkFromIndexTest(){
+        LocalDate today = LocalDate.now();
+        openLoanIndex.loadLoans(Arrays.asList(openLoanEntry(1L, today.minusDays(10)), openLoanEntry(2L, today.minusDays(5)),
+                openLoanEntry(3L, today.minusDays(1)), openLoanEntry(4L, today.minusDays(4))));
+        Mockito.when(repository.findOpenLoansByIds(Mockito.anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            return ids.stream().map(id -> Loan.builder().id(id).build()).collect(Collectors.toList());
+        });
+
+        List<List<Long>> chunks = new ArrayList<>();
+        service.forEachLateLoansChunk(2, loans -> chunks.add(loans.stream().map(Loan::getId).collect(Collectors.toList())));
+
+        assertThat(chunks).containsExactly(Arrays.asList(1L, 2L), Arrays.asList(4L));
+        Mockito.verify(repository, Mockito.never()).findFirstLateLoans(Mockito.any(LocalDate.class), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Deve recarregar o indice de atrasados com o banco sem desfazer o que este no gravou durante a leitura")
+    public void reloadOpenLoanIndexTest(){
+        LocalDate late = LocalDate.now().minusDays(10);
+        openLoanIndex.loadLoans(Arrays.asList(openLoanEntry(1L, late), openLoanEntry(2L, late)));
+        Mockito.when(repository.findOpenLoanEntries()).thenAnswer(invocation -> {
+            // emprestimo aberto por este no enquanto a consulta rodava: a leitura nao o ve
+            openLoanIndex.addLoan(5L, late);
+            return Arrays.asList(openLoanEntry(2L, late), openLoanEntry(3L, late));
+        });
+
+        service.reloadOpenLoanIndex();
+
+        assertThat(openLoanIndex.loansDueBy(LocalDate.now().minusDays(4))).containsExactly(2L, 3L, 5L);
+    }
+
+    @Test
+    @DisplayName("Deve manter o indice de atrasados ao emprestar e devolver")
+    public void lateLoanIndexFollowsLoansTest(){
+        openLoanIndex.loadLoans(new ArrayList<>());
+        Loan loan = createLoan();
+        loan.setLoanDate(LocalDate.now().minusDays(7));
+        Loan saved = createLoan();
+        saved.setId(1L);
+        saved.setLoanDate(loan.getLoanDate());
+        Mockito.when(repository.save(loan)).thenReturn(saved);
+
+        service.save(loan);
+        Assertions.assertEquals(Arrays.asList(1L), openLoanIndex.loansDueBy(LocalDate.now().minusDays(4)));
+
+        saved.setReturned(true);
+        service.update(saved);
+        Assertions.assertTrue(openLoanIndex.loansDueBy(LocalDate.now().minusDays(4)).isEmpty());
+    }
+
+    private static OpenLoanEntry openLoanEntry(Long id, LocalDate loanDate){
+        return new OpenLoanEntry() {
+            public Long getId() { return id; }
+            public LocalDate getLoanDate() { return loanDate; }
+        };
+    }
+
+    private static LoanReturnEntry returnEntry(Long id, Long bookId, String isbn, Boolean returned){
+        return new LoanReturnEntry() {
+            public Long getId() { return id; }
+            public Long getBookId() { return bookId; }
+            public String getIsbn() { return isbn; }
+            public Boolean getReturned() { return returned; }
+        };
+    }
+
+    private static Loan loanOf(Long bookId, String isbn, LocalDate loanDate){
+        return Loan.builder().book(Book.builder().id(bookId).isbn(isbn).build()).customer("Fulano").loanDate(loanDate).build();
+    }
+
+    private static LoanDateCount dateCount(LocalDate loanDate, long total){
+        return new LoanDateCount() {
+            public LocalDate getLoanDate() { return loanDate; }
+            public Long getTotal() { return total; }
+        };
+    }
+
+    private static IsbnCount isbnCount(String isbn, long total){
+        return new IsbnCount() {
+            public String getIsbn() { return isbn; }
+            public Long getTotal() { return total; }
+        };
+    }
+
     public static Loan createLoan(){
         Book book = Book.builder().id(1L).build();
         String customer = "fulano";
@@ -0,0 +1,158 @@
+package io.curso.libraryapi.service;
+
+import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.api.repository.Notification;
+import io.curso.libraryapi.api.repository.NotificationRepository;
+import io.curso.libraryapi.service.imp.EmailServiceImpl;
+import io.curso.libraryapi.service.imp.NotificationServiceImpl;
+import io.curso.libraryapi.service.mail.FakeJavaMailSender;
+import io.curso.libraryapi.service.mail.TokenBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+public class NotificationServiceTest {
+
+    @Autowired
+    NotificationRepository repository;
+
+    @Test
+    @DisplayName("Deve gravar um aviso por emprestimo e dia, mesmo se a varredura rodar de novo")
+    public void enqueueOncePerLoanAndDayTest() {
+        NotificationService service = createService(new FakeJavaMailSender(0), 3);
+        List<Loan> lateLoans = Arrays.asList(loan(1L, "a@email.com"), loan(2L, "b@email.com"), loan(3L, null));
+
+        int first = service.enqueueLateLoans(lateLoans, "mensagem");
+        int second = service.enqueueLateLoans(lateLoans, "mensagem");
+
+        assertThat(first).isEqualTo(2);
+        assertThat(second).isZero();
+        assertThat(repository.countByStatus(Notification.Status.PENDING)).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve gravar linha a linha quando o lote for recusado, pulando so os avisos ja gravados")
+    public void enqueueRetriesRowByRowTest() {
+        NotificationRepository rejecting = Mockito.mock(NotificationRepository.class);
+        Mockito.when(rejecting.saveAll(Mockito.anyList())).thenThrow(new DataIntegrityViolationException("uk_notification_loan_date"));
+        Mockito.when(rejecting.save(Mockito.any(Notification.class))).thenAnswer(invocation -> {
+            Notification notification = invocation.getArgument(0);
+            if (notification.getLoanId() == 2L) {
+                throw new DataIntegrityViolationException("uk_notification_loan_date");
+            }
+            return notification;
+        });
+        NotificationService service = new NotificationServiceImpl(rejecting, Mockito.mock(EmailService.class), 100, 3, 0L, 60000L);
+
+        int queued = service.enqueueLateLoans(Arrays.asList(loan(1L, "a@email.com"), loan(2L, "b@email.com"), loan(3L, "c@email.com")), "mensagem");
+
+        assertThat(queued).isEqualTo(2);
+        Mockito.verify(rejecting, Mockito.times(3)).save(Mockito.any(Notification.class));
+    }
+
+    @Test
+    @DisplayName("Deve enviar os avisos pendentes pelo outbox e nao reenviar os ja enviados")
+    public void drainSendsPendingOnceTest() {
+        FakeJavaMailSender sender = new FakeJavaMailSender(0);
+        NotificationService service = createService(sender, 3);
+        service.enqueueLateLoans(Arrays.asList(loan(1L, "a@email.com"), loan(2L, "b@email.com")), "mensagem");
+
+        int sent = service.drainOutbox();
+        int sentAgain = service.drainOutbox();
+
+        assertThat(sent).isEqualTo(2);
+        assertThat(sentAgain).isZero();
+        assertThat(sender.getSentMessages()).extracting(message -> message.getTo()[0])
+                .containsExactlyInAnyOrder("a@email.com", "b@email.com");
+        assertThat(repository.countByStatus(Notification.Status.SENT)).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve enviar cada aviso uma vez quando dois drains rodarem ao mesmo tempo")
+    public void overlappingDrainsSendOnceTest() {
+        AtomicReference<NotificationService> overlapping = new AtomicReference<>();
+        AtomicInteger sentByOverlapping = new AtomicInteger(-1);
+        FakeJavaMailSender sender = new FakeJavaMailSender(0) {
+            @Override
+            public void send(SimpleMailMessage... simpleMessages) {
+                // o segundo drain roda enquanto o primeiro ainda esta enviando o lote reservado
+                if (sentByOverlapping.get() < 0) {
+                    sentByOverlapping.set(overlapping.get().drainOutbox());
+                }
+                super.send(simpleMessages);
+            }
+        };
+        NotificationService service = createService(sender, 3);
+        overlapping.set(createService(sender, 3));
+        service.enqueueLateLoans(Arrays.asList(loan(1L, "a@email.com"), loan(2L, "b@email.com")), "mensagem");
+
+        int sent = service.drainOutbox();
+
+        assertThat(sent).isEqualTo(2);
+        assertThat(sentByOverlapping.get()).isZero();
+        assertThat(sender.getSentMessages()).hasSize(2);
+        assertThat(repository.countByStatus(Notification.Status.SENT)).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve tentar novamente os avisos recusados e desistir apos o maximo de tentativas")
+    public void retryAndGiveUpTest() {
+        FakeJavaMailSender sender = new FakeJavaMailSender(0) {
+            @Override
+            public void send(SimpleMailMessage... simpleMessages) {
+                throw new MailSendException("smtp fora do ar");
+            }
+        };
+        NotificationService service = createService(sender, 3);
+        service.enqueueLateLoans(Arrays.asList(loan(1L, "a@email.com")), "mensagem");
+
+        assertThat(service.drainOutbox()).isZero();
+        Notification notification = repository.findAll().get(0);
+        assertThat(notification.getStatus()).isEqualTo(Notification.Status.PENDING);
+        assertThat(notification.getAttempts()).isEqualTo(1);
+
+        service.drainOutbox();
+        service.drainOutbox();
+        service.drainOutbox();
+
+        notification = repository.findAll().get(0);
+        assertThat(notification.getStatus()).isEqualTo(Notification.Status.FAILED);
+        assertThat(notification.getAttempts()).isEqualTo(3);
+        assertThat(notification.getLastError()).isNotNull();
+    }
+
+    private NotificationService createService(JavaMailSender sender, int maxAttempts) {
+        EmailServiceImpl emailService = new EmailServiceImpl(sender, Runnable::run, new TokenBucket(0, 0), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(emailService, "remetent", "biblioteca@email.com");
+        ReflectionTestUtils.setField(emailService, "batchSize", 50);
+        ReflectionTestUtils.setField(emailService, "maxAttempts", 1);
+        ReflectionTestUtils.setField(emailService, "retryBackoffMillis", 0L);
+        return new NotificationServiceImpl(repository, emailService, 100, maxAttempts, 0L, 60000L);
+    }
+
+    private static Loan loan(Long id, String email) {
+        return Loan.builder().id(id).customer("Fulano").customerEmail(email).loanDate(LocalDate.now().minusDays(5)).build();
+    }
+}
@@ -0,0 +1,124 @@
+package io.curso.libraryapi.service;
+
+import io.curso.libraryapi.api.dto.BookDTO;
+import io.curso.libraryapi.api.dto.LoanDto;
+import io.curso.libraryapi.api.dto.ReturnedDTO;
+import io.curso.libraryapi.api.repository.Book;
+import io.curso.libraryapi.api.repository.Loan;
+import io.curso.libraryapi.api.resource.BookController;
+import io.curso.libraryapi.api.resource.LoanController;
+import io.curso.libraryapi.config.ReplicaDataSourceConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1",
+        "application.datasource.replica.enabled=true",
+        "application.datasource.replica.url=jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1",
+        "spring.cache.type=none"
+})
+@ActiveProfiles("test")
+public class ReadReplicaRoutingTest {
+
+    private static final long BOOK_ID = 1000L;
+
+    @Autowired
+    BookService bookService;
+    @Autowired
+    LoanService loanService;
+    @Autowired
+    BookController bookController;
+    @Autowired
+    LoanController loanController;
+    @Autowired
+    @Qualifier(ReplicaDataSourceConfig.PRIMARY_DATA_SOURCE)
+    DataSource primary;
+    @Autowired
+    @Qualifier(ReplicaDataSourceConfig.REPLICA_DATA_SOURCE)
+    DataSource replica;
+
+    JdbcTemplate primaryJdbc;
+    JdbcTemplate replicaJdbc;
+
+    // a replica do teste e um segundo H2: recebe o schema do primario, mas os dados de cada lado sao diferentes
+    @BeforeEach
+    void setUp(){
+        primaryJdbc = new JdbcTemplate(primary);
+        replicaJdbc = new JdbcTemplate(replica);
+        replicaJdbc.execute("drop all objects");
+        primaryJdbc.queryForList("script nodata", String.class).stream()
+                .filter(statement -> !statement.startsWith("--"))
+                .forEach(replicaJdbc::execute);
+        primaryJdbc.update("delete from loan");
+        primaryJdbc.update("delete from book");
+        primaryJdbc.update("insert into book (id, title, autor, isbn) values (?, 'No primario', 'Fulano', '123')", BOOK_ID);
+        replicaJdbc.update("insert into book (id, title, autor, isbn) values (?, 'Na replica', 'Fulano', '123')", BOOK_ID);
+        replicaJdbc.update("insert into loan (id, customer, id_book, loan_date, returned) values (1, 'Fulano', ?, ?, false)",
+                BOOK_ID, LocalDate.now());
+    }
+
+    @Test
+    @DisplayName("Deve pesquisar livros pela replica, carregar o cache e gravar a atualizacao no primario")
+    public void readBookFromReplicaAndUpdatePrimaryTest(){
+        // ordenado: a pesquisa vai ao banco em vez do indice de busca
+        assertThat(bookService.find(Book.builder().title("Na replica").build(), PageRequest.of(0, 10, Sort.by("id"))).getContent())
+                .extracting(Book::getTitle).containsExactly("Na replica");
+        Book book = bookService.getById(BOOK_ID).get();
+        assertThat(book.getTitle()).isEqualTo("No primario");
+        assertThat(bookService.getBookByIsbn("123")).map(Book::getTitle).contains("No primario");
+
+        book.setTitle("Atualizado");
+        bookService.update(book);
+
+        assertThat(titleIn(primaryJdbc)).isEqualTo("Atualizado");
+        assertThat(titleIn(replicaJdbc)).isEqualTo("Na replica");
+    }
+
+    @Test
+    @DisplayName("Deve ler os emprestimos pela replica e gravar o novo emprestimo no primario")
+    public void readLoansFromReplicaAndSavePrimaryTest(){
+        Book book = Book.builder().id(BOOK_ID).isbn("123").build();
+
+        assertThat(loanService.getLoansByBook(book, PageRequest.of(0, 10)).getTotalElements()).isEqualTo(1);
+        // o emprestimo so existe na replica: a carga do cache de emprestimos abertos vai ao primario
+        assertThat(loanService.getOpenLoansByCustomer("Fulano")).isEmpty();
+
+        loanService.save(Loan.builder().book(book).customer("Ciclano").loanDate(LocalDate.now()).build());
+
+        assertThat(primaryJdbc.queryForObject("select count(*) from loan where customer = 'Ciclano'", Long.class)).isEqualTo(1);
+        assertThat(replicaJdbc.queryForObject("select count(*) from loan where customer = 'Ciclano'", Long.class)).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve carregar do primario os registros alterados pelas escritas, mesmo sem existirem na replica")
+    public void writesLoadFromPrimaryTest(){
+        primaryJdbc.update("insert into book (id, title, autor, isbn) values (2000, 'So no primario', 'Fulano', '999')");
+        primaryJdbc.update("insert into loan (id, customer, id_book, loan_date, returned) values (2, 'Beltrano', ?, ?, false)",
+                BOOK_ID, LocalDate.now());
+
+        loanController.returnBook(2L, ReturnedDTO.builder().returned(true).build()).join();
+        bookController.update(2000L, BookDTO.builder().title("Atualizado").autor("Fulano").isbn("999").build()).join();
+        Long loanId = loanController.create(LoanDto.builder().isbn("999").customer("Ciclano").email("ciclano@email.com").build()).join();
+
+        assertThat(primaryJdbc.queryForObject("select returned from loan where id = 2", Boolean.class)).isTrue();
+        assertThat(primaryJdbc.queryForObject("select title from book where id = 2000", String.class)).isEqualTo("Atualizado");
+        assertThat(primaryJdbc.queryForObject("select id_book from loan where id = ?", Long.class, loanId)).isEqualTo(2000L);
+    }
+
+    private static String titleIn(JdbcTemplate jdbc){
+        return jdbc.queryForObject("select title from book where id = ?", String.class, BOOK_ID);
+    }
+}